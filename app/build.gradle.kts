@@ -42,6 +42,21 @@ android {
     composeOptions {
         kotlinCompilerExtensionVersion = "1.5.1"
     }
+    testOptions {
+        unitTests {
+            isIncludeAndroidResources = true
+            all { test ->
+                // The provider benchmark is slow and timing-sensitive; it only runs with -Pcompanion.benchmark.
+                if (!project.hasProperty("companion.benchmark")) {
+                    test.exclude("**/*Benchmark*")
+                }
+                // Lets -Pcompanion.benchmark.notes=100000 size the fake collection in AnkiDroidHelperBenchmark.
+                project.findProperty("companion.benchmark.notes")?.let {
+                    test.systemProperty("companion.benchmark.notes", it)
+                }
+            }
+        }
+    }
     packaging {
         resources {
             excludes += "/META-INF/{AL2.0,LGPL2.1}"
@@ -74,12 +89,14 @@ dependencies {
     implementation("androidx.compose.ui:ui-tooling-preview")
     implementation("androidx.compose.material3:material3")
     testImplementation("junit:junit:4.13.2")
+    testImplementation("org.robolectric:robolectric:4.11.1")
+    testImplementation("androidx.test:core:1.5.0")
     androidTestImplementation("androidx.test.ext:junit:1.1.5")
     androidTestImplementation(platform("androidx.compose:compose-bom:2023.08.00"))
     androidTestImplementation("androidx.compose.ui:ui-test-junit4")
     debugImplementation("androidx.compose.ui:ui-tooling")
     debugImplementation("androidx.compose.ui:ui-test-manifest")
     implementation("com.github.ankidroid:Anki-Android:v2.17alpha8")
-    implementation("androidx.work:work-runtime:2.7.0")
+    implementation("androidx.work:work-runtime:2.8.1")
 
 }
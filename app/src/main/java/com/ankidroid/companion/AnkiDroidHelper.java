@@ -13,6 +13,7 @@ import android.os.Build;
 import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 import android.widget.Toast;
 
@@ -21,17 +22,14 @@ import com.ichi2.anki.api.AddContentApi;
 import static com.ichi2.anki.api.AddContentApi.READ_WRITE_PERMISSION;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.Collections;
 import java.util.Set;
 import java.util.HashSet;
 import java.util.List;
-
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.util.Random;
 
 public class AnkiDroidHelper {
     public static final int EASE_1 = 1;
@@ -44,14 +42,23 @@ public class AnkiDroidHelper {
             FlashCardsContract.Card.QUESTION,
             FlashCardsContract.Card.ANSWER_PURE,
             FlashCardsContract.Card.QUESTION_SIMPLE};
+    private static final String[] BULK_CARD_PROJECTION = {
+            FlashCardsContract.Card.NOTE_ID,
+            FlashCardsContract.Card.CARD_ORD,
+            FlashCardsContract.Card.ANSWER,
+            FlashCardsContract.Card.QUESTION,
+            FlashCardsContract.Card.ANSWER_PURE,
+            FlashCardsContract.Card.QUESTION_SIMPLE};
+    private static final Uri CARDS_URI = Uri.parse("content://com.ichi2.anki.flashcards/cards");
+    // Keep the IN (...) list well below SQLite's bound-argument limit.
+    private static final int ENRICH_BATCH_SIZE = 50;
+    // Per-refresh cap on notes/<id>/cards round-trips in the deck-search fallback.
+    private static final int MEMBERSHIP_CHECK_BUDGET = 25;
     private static final String DECK_REF_DB = "com.ichi2.anki.api.decks";
-    private static final String STATE_DB = "com.ichi2.anki.api.state";
-
-    private static final String KEY_CURRENT_STATE = "CURRENT_STATE";
 
     private AddContentApi mApi;
     private Context mContext;
-    private final Handler uiHandler = new Handler();
+    private final Handler uiHandler = new Handler(Looper.getMainLooper());
 
     public AnkiDroidHelper(Context context) {
         Log.i("BackgroundService", "AnkiDroidHelper constructor - 1");
@@ -156,48 +163,19 @@ public class AnkiDroidHelper {
     }
 
     public void storeState(long deckId, CardInfo card) {
-        final SharedPreferences cardsDb = mContext.getSharedPreferences(STATE_DB, Context.MODE_PRIVATE);
-
-        Map<String, Object> message = new HashMap<>();
-        message.put("deck_id", deckId);
-        if (card != null) {
-            message.put("note_id", card.noteID);
-            message.put("card_ord", card.cardOrd);
-            message.put("start_time", card.cardStartTime);
-        } else {
-            // Only deck was updated; clear card-related fields.
-            message.put("note_id", -1);
-            message.put("card_ord", -1);
-            message.put("start_time", 0);
-        }
-        JSONObject js = new JSONObject(message);
+        StateStore.getInstance(mContext).set(deckId, card);
+    }
 
-        cardsDb.edit().putString(KEY_CURRENT_STATE, js.toString()).apply();
+    /**
+     * Replace the stored card with {@code next}, but only if {@code from} still describes the stored card.
+     * @return false if another action already moved the state on
+     */
+    public boolean advanceState(StoredState from, CardInfo next) {
+        return StateStore.getInstance(mContext).compareAndSetCard(from.deckId, from.noteID, from.cardOrd, next);
     }
 
     public StoredState getStoredState() {
-        final SharedPreferences cardsDb = mContext.getSharedPreferences(STATE_DB, Context.MODE_PRIVATE);
-        String message = cardsDb.getString(KEY_CURRENT_STATE, "");
-
-        // No state found in local
-        if (message == "") {
-            return null;
-        }
-
-        JSONObject json;
-        try {
-            json = new JSONObject(message);
-            StoredState state = new StoredState();
-            state.deckId = json.getLong("deck_id");
-            state.noteID = json.getLong("note_id");
-            state.cardOrd = json.getInt("card_ord");
-            state.cardStartTime = json.getLong("start_time");
-            return state;
-        } catch (JSONException e) {
-            // Log.e(TAG, "JSONException " + e);
-            e.printStackTrace();
-        }
-        return null;
+        return StateStore.getInstance(mContext).get();
     }
 
     @SuppressLint("Range,DirectSystemCurrentTimeMillisUsage")
@@ -225,110 +203,145 @@ public class AnkiDroidHelper {
         } else {
             // permission has been granted, normal case
 
-            Cursor reviewInfoCursor =
-                    mContext.getContentResolver().query(FlashCardsContract.ReviewInfo.CONTENT_URI, null, deckSelector, deckArguments, null);
-
-            if (reviewInfoCursor == null || !reviewInfoCursor.moveToFirst()) {
-                // Log.d(TAG, "query for due card info returned no result");
-                if (reviewInfoCursor != null) {
-                    reviewInfoCursor.close();
-                }
-            } else {
-                ArrayList<CardInfo> cards = new ArrayList<>();
-
-                // Walk through the cursor to get the responses.
-                do {
-                    CardInfo card = new CardInfo();
+            CardInfo chosen = pickScheduledCard(deckSelector, deckArguments, mode);
+            if (chosen != null) {
+                // Only the chosen card is shown, so only its content is loaded.
+                List<CardInfo> loaded = enrichCards(Collections.singletonList(chosen));
+                return loaded.isEmpty() ? null : loaded.get(0);
+            }
+        }
+        return null;
+    }
 
-                    card.cardOrd = reviewInfoCursor.getInt(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.CARD_ORD));
-                    card.noteID = reviewInfoCursor.getLong(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.NOTE_ID));
-                    card.buttonCount = reviewInfoCursor.getInt(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.BUTTON_COUNT));
+    /**
+     * The card REVIEW mode would show for the deck, by ids only; no content is loaded. Cheap enough to
+     * compare against the shown card whenever AnkiDroid reports a change.
+     * @return the top card, or null if the queue really is empty
+     * @throws IllegalStateException if the queue could not be read (permission missing, AnkiDroid not
+     *         answering), so callers can tell "unavailable" apart from "empty"
+     */
+    public CardInfo peekTopScheduledCard(long deckId) {
+        if (deckId == -1) {
+            return null;
+        }
+        if (!isPermissionGranted()) {
+            throw new IllegalStateException("AnkiDroid permission not granted");
+        }
+        Cursor reviewInfoCursor = ProviderMetrics.query(mContext.getContentResolver(), FlashCardsContract.ReviewInfo.CONTENT_URI,
+                null, "limit=?,deckID=?", new String[]{"20", String.valueOf(deckId)}, null);
+        if (reviewInfoCursor == null) {
+            throw new IllegalStateException("Review queue unavailable");
+        }
+        try {
+            return chooseScheduledCard(new ReviewInfoReader(reviewInfoCursor), UserPreferences.CardSourceMode.REVIEW);
+        } finally {
+            reviewInfoCursor.close();
+        }
+    }
 
-                    try {
-                        card.fileNames = new JSONArray(reviewInfoCursor.getString(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.MEDIA_FILES)));
-                        card.nextReviewTexts = new JSONArray(reviewInfoCursor.getString(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.NEXT_REVIEW_TIMES)));
-                    } catch (JSONException e) {
-                        e.printStackTrace();
-                    }
-                    card.cardStartTime = System.currentTimeMillis();
-                    // Log.v(TAG, "card added to queue: " + card.fileNames);
-                    cards.add(card);
-                } while (reviewInfoCursor.moveToNext());
-
-                reviewInfoCursor.close();
-
-                if (cards.size() >= 1) {
-                    // Apply template filter if user specified.
-                    ArrayList<CardInfo> filtered = new ArrayList<>();
-                    final Set<TemplateKey> allowedTemplates = UserPreferences.INSTANCE.getTemplateFilter(mContext);
-                    for (CardInfo card : cards) {
-                        // fetch modelId for filter & enrichment
-                        long modelId = fetchModelId(card.noteID);
-                        card.modelId = modelId;
-
-                        if (allowedTemplates.isEmpty() || templateMatches(allowedTemplates, new TemplateKey(card.modelId, card.cardOrd))) {
-                            filtered.add(card);
-                        }
-                    }
+    private CardInfo pickScheduledCard(String deckSelector, String[] deckArguments, UserPreferences.CardSourceMode mode) {
+        Cursor reviewInfoCursor =
+                ProviderMetrics.query(mContext.getContentResolver(), FlashCardsContract.ReviewInfo.CONTENT_URI, null, deckSelector, deckArguments, null);
+        if (reviewInfoCursor == null) {
+            // Log.d(TAG, "query for due card info returned no result");
+            return null;
+        }
+        try {
+            return chooseScheduledCard(new ReviewInfoReader(reviewInfoCursor), mode);
+        } finally {
+            reviewInfoCursor.close();
+        }
+    }
 
-                    if (filtered.size() == 0) {
-                        // No card matches filter.
-                        return null;
-                    }
+    /**
+     * Pick the card to show from the review queue rows: the first card passing the template filter in
+     * REVIEW mode, a random one otherwise. Only the picked row becomes a CardInfo.
+     */
+    private CardInfo chooseScheduledCard(ReviewInfoReader rows, UserPreferences.CardSourceMode mode) {
+        if (rows.size() == 0) {
+            return null;
+        }
+        // Apply template filter if user specified; fetch modelIds for filter & enrichment.
+        final TemplateFilter templateFilter = UserPreferences.INSTANCE.getCompiledTemplateFilter(mContext);
+        Map<Long, Long> noteModels = NoteModelIndex.getInstance(mContext).resolve(rows.noteIds());
+        int[] matching = new int[rows.size()];
+        long[] modelIds = new long[rows.size()];
+        int matchCount = 0;
+        for (int row = 0; row < rows.size(); row++) {
+            Long modelId = noteModels.get(rows.noteId(row));
+            modelIds[row] = modelId != null ? modelId : -1;
+            if (templateFilter.matches(modelIds[row], rows.ord(row))) {
+                matching[matchCount++] = row;
+            }
+        }
+        if (matchCount == 0) {
+            // No card matches filter.
+            return null;
+        }
+        if (mode == UserPreferences.CardSourceMode.REVIEW) {
+            // Keep the exact top-of-queue card to avoid oscillating between two items when refreshing.
+            int row = matching[0];
+            return rows.card(row, modelIds[row]);
+        }
+        // Random modes skip the already-shown card when there is another one to show.
+        StoredState current = getStoredState();
+        if (current != null && matchCount > 1) {
+            int kept = 0;
+            for (int i = 0; i < matchCount; i++) {
+                int row = matching[i];
+                if (rows.noteId(row) != current.noteID || rows.ord(row) != current.cardOrd) {
+                    matching[kept++] = row;
+                }
+            }
+            matchCount = kept;
+            if (matchCount == 0) {
+                return null;
+            }
+        }
+        int row = matching[new Random().nextInt(matchCount)];
+        return rows.card(row, modelIds[row]);
+    }
 
-                    cards = filtered;
-
-                    for (CardInfo card : cards) {
-                        Uri noteUri = Uri.withAppendedPath(FlashCardsContract.Note.CONTENT_URI, Long.toString(card.noteID));
-                        Uri cardsUri = Uri.withAppendedPath(noteUri, "cards");
-                        Uri specificCardUri = Uri.withAppendedPath(cardsUri, Integer.toString(card.cardOrd));
-                        final Cursor specificCardCursor = mContext.getContentResolver().query(specificCardUri,
-                                CARD_PROJECTION,  // projection
-                                null,  // selection is ignored for this URI
-                                null,  // selectionArgs is ignored for this URI
-                                null   // sortOrder is ignored for this URI
-                        );
-
-                        if (specificCardCursor == null || !specificCardCursor.moveToFirst()) {
-                            // Log.d(TAG, "query for due card info returned no result");
-                            if (specificCardCursor != null) {
-                                specificCardCursor.close();
-                            }
-                            return null;
-                        } else {
-                            card.rawAnswer = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.ANSWER));
-                            card.rawQuestion = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.QUESTION));
-                            card.simpleAnswer = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.ANSWER_PURE));
-                            card.simpleQuestion = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.QUESTION_SIMPLE));
-                            card.a = card.rawAnswer != null && !card.rawAnswer.isEmpty() ? card.rawAnswer : card.simpleAnswer;
-                            card.q = card.rawQuestion != null && !card.rawQuestion.isEmpty() ? card.rawQuestion : card.simpleQuestion;
-                            specificCardCursor.close();
-                        }
-                    }
-                    if (mode != UserPreferences.CardSourceMode.REVIEW) {
-                        Collections.shuffle(cards);
-                    }
-                    // Only skip the already-shown card in random modes; in REVIEW mode we must keep the
-                    // exact top-of-queue card to avoid oscillating between two items when refreshing.
-                    if (mode != UserPreferences.CardSourceMode.REVIEW) {
-                        StoredState current = getStoredState();
-                        if (current != null && cards.size() > 1) {
-                            for (int i = cards.size() - 1; i >= 0; i--) {
-                                CardInfo c = cards.get(i);
-                                if (c.noteID == current.noteID && c.cardOrd == current.cardOrd) {
-                                    cards.remove(i);
-                                }
-                            }
-                            if (cards.isEmpty()) {
-                                return null;
-                            }
-                        }
-                    }
-                    return cards.get(0);
+    /**
+     * Best guess at the card the queue shows once the shown card of {@code afterNoteId} is answered: the
+     * first queue card of another note that passes the template filter, with its content loaded. Answering
+     * can requeue cards, so callers confirm the guess against the real queue.
+     */
+    public CardInfo peekNextScheduledCard(long deckId, long afterNoteId) {
+        if (deckId == -1 || !isPermissionGranted()) {
+            return null;
+        }
+        Cursor reviewInfoCursor = ProviderMetrics.query(mContext.getContentResolver(),
+                FlashCardsContract.ReviewInfo.CONTENT_URI,
+                null,
+                "limit=?,deckID=?",
+                new String[]{"20", String.valueOf(deckId)},
+                null);
+        if (reviewInfoCursor == null) {
+            return null;
+        }
+        CardInfo guess = null;
+        try {
+            ReviewInfoReader rows = new ReviewInfoReader(reviewInfoCursor);
+            final TemplateFilter templateFilter = UserPreferences.INSTANCE.getCompiledTemplateFilter(mContext);
+            Map<Long, Long> noteModels = NoteModelIndex.getInstance(mContext).resolve(rows.noteIds());
+            for (int row = 0; row < rows.size() && guess == null; row++) {
+                // Siblings of the answered card are buried by default, so skip its whole note.
+                if (rows.noteId(row) == afterNoteId) continue;
+                Long modelId = noteModels.get(rows.noteId(row));
+                long mid = modelId != null ? modelId : -1;
+                if (templateFilter.matches(mid, rows.ord(row))) {
+                    guess = rows.card(row, mid);
                 }
             }
+        } finally {
+            reviewInfoCursor.close();
         }
-        return null;
+        if (guess == null) {
+            return null;
+        }
+        List<CardInfo> loaded = enrichCards(Collections.singletonList(guess));
+        return loaded.isEmpty() ? null : loaded.get(0);
     }
 
     public CardInfo getTopCardForDeck(long deckId) {
@@ -349,71 +362,30 @@ public class AnkiDroidHelper {
             return cards;
         }
         Cursor reviewInfoCursor =
-                mContext.getContentResolver().query(FlashCardsContract.ReviewInfo.CONTENT_URI, null, deckSelector, deckArguments, null);
-
-        if (reviewInfoCursor == null || !reviewInfoCursor.moveToFirst()) {
-            if (reviewInfoCursor != null) {
-                reviewInfoCursor.close();
-            }
+                ProviderMetrics.query(mContext.getContentResolver(), FlashCardsContract.ReviewInfo.CONTENT_URI, null, deckSelector, deckArguments, null);
+        if (reviewInfoCursor == null) {
             return cards;
         }
 
         try {
-            do {
-                CardInfo card = new CardInfo();
-                card.cardOrd = reviewInfoCursor.getInt(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.CARD_ORD));
-                card.noteID = reviewInfoCursor.getLong(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.NOTE_ID));
-                card.buttonCount = reviewInfoCursor.getInt(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.BUTTON_COUNT));
-
-                try {
-                    card.fileNames = new JSONArray(reviewInfoCursor.getString(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.MEDIA_FILES)));
-                    card.nextReviewTexts = new JSONArray(reviewInfoCursor.getString(reviewInfoCursor.getColumnIndex(FlashCardsContract.ReviewInfo.NEXT_REVIEW_TIMES)));
-                } catch (JSONException e) {
-                    e.printStackTrace();
+            ReviewInfoReader rows = new ReviewInfoReader(reviewInfoCursor);
+            // Apply template filter before building cards, so filtered-out rows cost no allocation.
+            final TemplateFilter templateFilter = UserPreferences.INSTANCE.getCompiledTemplateFilter(mContext);
+            Map<Long, Long> noteModels = NoteModelIndex.getInstance(mContext).resolve(rows.noteIds());
+            for (int row = 0; row < rows.size(); row++) {
+                Long modelId = noteModels.get(rows.noteId(row));
+                long mid = modelId != null ? modelId : -1;
+                if (templateFilter.matches(mid, rows.ord(row))) {
+                    cards.add(rows.card(row, mid));
                 }
-                card.cardStartTime = System.currentTimeMillis();
-                long modelId = fetchModelId(card.noteID);
-                card.modelId = modelId;
-                cards.add(card);
-            } while (reviewInfoCursor.moveToNext());
+            }
         } finally {
             reviewInfoCursor.close();
         }
-
-        // Apply template filter
-        ArrayList<CardInfo> filtered = new ArrayList<>();
-        final Set<TemplateKey> allowedTemplates = UserPreferences.INSTANCE.getTemplateFilter(mContext);
-        for (CardInfo card : cards) {
-            if (allowedTemplates.isEmpty() || templateMatches(allowedTemplates, new TemplateKey(card.modelId, card.cardOrd))) {
-                filtered.add(card);
-            }
-        }
-        cards = filtered;
         if (cards.isEmpty()) return cards;
 
-        // Enrich with question/answer text
-        for (CardInfo card : cards) {
-            Uri noteUri = Uri.withAppendedPath(FlashCardsContract.Note.CONTENT_URI, Long.toString(card.noteID));
-            Uri cardsUri = Uri.withAppendedPath(noteUri, "cards");
-            Uri specificCardUri = Uri.withAppendedPath(cardsUri, Integer.toString(card.cardOrd));
-            final Cursor specificCardCursor = mContext.getContentResolver().query(specificCardUri,
-                    CARD_PROJECTION,
-                    null,
-                    null,
-                    null
-            );
-            if (specificCardCursor != null && specificCardCursor.moveToFirst()) {
-                card.rawAnswer = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.ANSWER));
-                card.rawQuestion = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.QUESTION));
-                card.simpleAnswer = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.ANSWER_PURE));
-                card.simpleQuestion = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.QUESTION_SIMPLE));
-                card.a = card.rawAnswer != null && !card.rawAnswer.isEmpty() ? card.rawAnswer : card.simpleAnswer;
-                card.q = card.rawQuestion != null && !card.rawQuestion.isEmpty() ? card.rawQuestion : card.simpleQuestion;
-            }
-            if (specificCardCursor != null) {
-                specificCardCursor.close();
-            }
-        }
+        // Only the card on screen needs its question/answer text; load it when rendered.
+        deferContent(cards);
 
         if (shuffle) {
             Collections.shuffle(cards);
@@ -435,287 +407,523 @@ public class AnkiDroidHelper {
             return result;
         }
         int cap = Math.max(1, sampleLimit);
-        ArrayList<Long> noteIds = new ArrayList<>();
-        // Filter notes by deckId explicitly to avoid pulling other decks.
+        Random random = new Random();
+        // Due notes are always part of the pool; the rest is a uniform sample of the whole deck.
+        List<Long> dueNotes = useReviewQueue ? dueDeckNotes(deckId, cap) : Collections.<Long>emptyList();
+        List<Long> sampled;
+        long[] indexedNotes = DeckNoteIndex.getInstance(mContext).get(deckId);
+        if (indexedNotes != null) {
+            sampled = DeckNoteIndex.sample(indexedNotes, cap, random);
+        } else {
+            sampled = scanDeckNotes(deckId, cap, random);
+        }
+        List<Long> noteIds = mergeDueFirst(dueNotes, sampled, cap, random);
+        if (noteIds.isEmpty()) return result;
+        final TemplateFilter storedFilter = ignoreTemplateFilter
+                ? TemplateFilter.ALL
+                : UserPreferences.INSTANCE.getCompiledTemplateFilter(mContext);
+        TemplateFilter templateFilter = storedFilter;
+        if (!storedFilter.matchesAll()) {
+            // Workaround: if template list for this deck cannot be loaded or has no overlap, ignore filter.
+            List<TemplateOption> deckTemplates = getTemplateOptionsForDeck(deckId);
+            boolean overlaps = false;
+            for (TemplateOption opt : deckTemplates) {
+                if (storedFilter.containsExact(opt.modelId, opt.ord)) {
+                    overlaps = true;
+                    break;
+                }
+            }
+            if (!overlaps) {
+                templateFilter = TemplateFilter.ALL;
+            }
+        }
+        Log.d("AnkiDroidHelper", "fetchRandomDeckCards: deckId=" + deckId + " noteCount=" + noteIds.size() + " indexed=" + (indexedNotes != null ? indexedNotes.length : -1) + " target=" + targetCount + " sampleLimit=" + cap + " templateFilterSize=" + templateFilter.size() + " ignoreFilter=" + ignoreTemplateFilter);
+        // Collect (noteId, ord) candidates and load their content in batches; cards that turn out to be
+        // missing are topped up from the next notes.
+        ArrayList<CardInfo> candidates = new ArrayList<>();
+        // Notes or cards AnkiDroid no longer knows; any of these means the deck snapshot is out of date.
+        int vanished = 0;
+        Map<Long, Long> noteModels = NoteModelIndex.getInstance(mContext).resolve(noteIds);
+        for (Long noteId : noteIds) {
+            if (result.size() + candidates.size() >= targetCount) {
+                List<CardInfo> loaded = enrichCards(candidates);
+                vanished += candidates.size() - loaded.size();
+                result.addAll(loaded);
+                candidates.clear();
+                if (result.size() >= targetCount) break;
+            }
+            Long modelId = noteModels.get(noteId);
+            if (modelId == null) {
+                vanished++;
+                continue;
+            }
+            int numCards = ModelCache.getInstance(mContext).getNumCards(modelId);
+            if (numCards <= 0) continue;
+
+            ArrayList<Integer> ords = new ArrayList<>();
+            for (int ord = 0; ord < numCards; ord++) {
+                if (templateFilter.matches(modelId, ord)) {
+                    ords.add(ord);
+                }
+            }
+            if (ords.isEmpty()) continue;
+            Collections.shuffle(ords);
+            for (Integer ord : ords) {
+                if (result.size() + candidates.size() >= targetCount) break;
+                CardInfo card = new CardInfo();
+                card.cardOrd = ord;
+                card.noteID = noteId;
+                card.modelId = modelId;
+                card.cardStartTime = System.currentTimeMillis();
+                candidates.add(card);
+            }
+        }
+        if (!candidates.isEmpty()) {
+            List<CardInfo> loaded = enrichCards(candidates);
+            vanished += candidates.size() - loaded.size();
+            result.addAll(loaded);
+        }
+        if (vanished > 0 && indexedNotes != null) {
+            DeckNoteIndex.getInstance(mContext).invalidate(deckId);
+        }
+        Log.d("AnkiDroidHelper", "fetchRandomDeckCards: built cards=" + result.size() + " vanished=" + vanished + " ignoreFilter=" + ignoreTemplateFilter);
+        if (result.isEmpty() && !storedFilter.matchesAll()) {
+            Log.w("AnkiDroidHelper", "No random cards matched template filter; falling back to all templates for deck " + deckId);
+            return fetchRandomDeckCardsInternal(deckId, targetCount, cap, true, useReviewQueue);
+        }
+        return result;
+    }
+
+    /**
+     * Distinct notes with cards due in the deck, in queue order, up to {@code cap}.
+     */
+    private List<Long> dueDeckNotes(long deckId, int cap) {
+        List<Long> due = new ArrayList<>();
+        LongHashSet seen = new LongHashSet();
         Cursor reviewCursor = null;
-        if (useReviewQueue) {
+        try {
+            reviewCursor = ProviderMetrics.query(mContext.getContentResolver(),
+                    FlashCardsContract.ReviewInfo.CONTENT_URI,
+                    new String[]{FlashCardsContract.ReviewInfo.NOTE_ID},
+                    "did=?",
+                    new String[]{String.valueOf(deckId)},
+                    null
+            );
+        } catch (IllegalArgumentException e) {
+            Log.w("AnkiDroidHelper", "Review deck filter not supported with did: " + e.getMessage());
             try {
-                reviewCursor = mContext.getContentResolver().query(
+                reviewCursor = ProviderMetrics.query(mContext.getContentResolver(),
                         FlashCardsContract.ReviewInfo.CONTENT_URI,
-                        new String[]{FlashCardsContract.ReviewInfo.NOTE_ID},
-                        "did=?",
-                        new String[]{String.valueOf(deckId)},
+                        new String[]{FlashCardsContract.ReviewInfo.NOTE_ID, "did"},
+                        null,
+                        null,
                         null
                 );
-            } catch (IllegalArgumentException e) {
-                Log.w("AnkiDroidHelper", "Review deck filter not supported with did: " + e.getMessage());
-                try {
-                    reviewCursor = mContext.getContentResolver().query(
-                            FlashCardsContract.ReviewInfo.CONTENT_URI,
-                            new String[]{FlashCardsContract.ReviewInfo.NOTE_ID, "did"},
-                            null,
-                            null,
-                            null
-                    );
-                } catch (IllegalArgumentException ex) {
-                    Log.w("AnkiDroidHelper", "Review table query unsupported: " + ex.getMessage());
-                    reviewCursor = null;
-                }
+            } catch (IllegalArgumentException ex) {
+                Log.w("AnkiDroidHelper", "Review table query unsupported: " + ex.getMessage());
+                reviewCursor = null;
             }
         }
         if (reviewCursor != null) {
             try {
                 int noteIdx = reviewCursor.getColumnIndex(FlashCardsContract.ReviewInfo.NOTE_ID);
                 int didIdx = reviewCursor.getColumnIndex("did");
-                if (noteIdx != -1 && reviewCursor.moveToFirst()) {
-                    do {
-                        if (noteIds.size() >= cap) break;
-                        if (didIdx != -1) {
-                            long did = reviewCursor.getLong(didIdx);
-                            if (did != deckId) continue;
-                        }
-                        noteIds.add(reviewCursor.getLong(noteIdx));
-                    } while (reviewCursor.moveToNext());
+                int read = 0;
+                while (noteIdx != -1 && due.size() < cap && reviewCursor.moveToNext()) {
+                    read++;
+                    if (didIdx != -1 && reviewCursor.getLong(didIdx) != deckId) continue;
+                    long nid = reviewCursor.getLong(noteIdx);
+                    if (seen.add(nid)) due.add(nid);
                 }
+                ProviderMetrics.rows(FlashCardsContract.ReviewInfo.CONTENT_URI, read);
             } finally {
                 reviewCursor.close();
             }
         }
-        int reviewPulled = noteIds.size();
-        int noteTablePulled = noteIds.size() - reviewPulled;
-        // If still insufficient, pull note ids from card table by deck to widen coverage (roam).
-        if (noteIds.size() < cap) {
-            Cursor cardCursor = null;
-            try {
-                // Prefer the official card URI and deck column constant.
-                Uri cardsUri = Uri.parse("content://com.ichi2.anki.flashcards/cards");
-                cardCursor = mContext.getContentResolver().query(
-                        cardsUri,
+        return due;
+    }
+
+    /**
+     * Due notes first, then sampled notes not already due, up to {@code cap}; the pool is shuffled so due
+     * notes are guaranteed a place but not the first picks.
+     */
+    private static List<Long> mergeDueFirst(List<Long> dueNotes, List<Long> sampled, int cap, Random random) {
+        if (dueNotes.isEmpty()) return sampled;
+        LongHashSet taken = new LongHashSet();
+        ArrayList<Long> pool = new ArrayList<>(cap);
+        for (Long nid : dueNotes) {
+            if (pool.size() >= cap) break;
+            if (taken.add(nid)) pool.add(nid);
+        }
+        for (Long nid : sampled) {
+            if (pool.size() >= cap) break;
+            if (taken.add(nid)) pool.add(nid);
+        }
+        Collections.shuffle(pool, random);
+        return pool;
+    }
+
+    /**
+     * Sample up to {@code cap} notes of the deck straight from the provider. A complete card table scan is
+     * remembered in {@link DeckNoteIndex} so the next refreshes can skip it.
+     * @return the sampled note ids in random order
+     */
+    private List<Long> scanDeckNotes(long deckId, int cap, Random random) {
+        // Reservoir-sample up to cap distinct notes over the whole deck in one pass, so every note has the
+        // same chance of being picked no matter where the provider lists it.
+        ReservoirSampler sampler = new ReservoirSampler(cap, random);
+        // The card table lists every note of the deck; the deck search only serves providers that cannot
+        // answer it.
+        Cursor cardCursor = null;
+        try {
+            // Prefer the official card URI and deck column constant.
+            cardCursor = ProviderMetrics.query(mContext.getContentResolver(),
+                    CARDS_URI,
+                    new String[]{FlashCardsContract.Card.NOTE_ID, FlashCardsContract.Card.DECK_ID},
+                    FlashCardsContract.Card.DECK_ID + "=?",
+                    new String[]{String.valueOf(deckId)},
+                    null
+            );
+            if (cardCursor == null) {
+                // Fallback to unfiltered query; we'll filter manually if the deck column exists.
+                cardCursor = ProviderMetrics.query(mContext.getContentResolver(),
+                        CARDS_URI,
                         new String[]{FlashCardsContract.Card.NOTE_ID, FlashCardsContract.Card.DECK_ID},
-                        FlashCardsContract.Card.DECK_ID + "=?",
-                        new String[]{String.valueOf(deckId)},
+                        null,
+                        null,
                         null
                 );
-                if (cardCursor == null) {
-                    // Fallback to unfiltered query; we'll filter manually if the deck column exists.
-                    cardCursor = mContext.getContentResolver().query(
-                            cardsUri,
-                            new String[]{FlashCardsContract.Card.NOTE_ID, FlashCardsContract.Card.DECK_ID},
-                            null,
-                            null,
-                            null
-                    );
-                }
-                if (cardCursor != null) {
-                    int noteIdx = cardCursor.getColumnIndex(FlashCardsContract.Card.NOTE_ID);
-                    int didIdx = cardCursor.getColumnIndex(FlashCardsContract.Card.DECK_ID);
-                    while (cardCursor.moveToNext() && noteIds.size() < cap) {
-                        if (noteIdx == -1) continue;
-                        if (didIdx != -1) {
-                            long did = cardCursor.getLong(didIdx);
-                            if (did != deckId) continue;
-                        }
-                        long nid = cardCursor.getLong(noteIdx);
-                        if (!noteIds.contains(nid)) {
-                            noteIds.add(nid);
-                        }
-                    }
+            }
+            if (cardCursor != null) {
+                int noteIdx = cardCursor.getColumnIndex(FlashCardsContract.Card.NOTE_ID);
+                int didIdx = cardCursor.getColumnIndex(FlashCardsContract.Card.DECK_ID);
+                int read = 0;
+                while (noteIdx != -1 && cardCursor.moveToNext()) {
+                    read++;
+                    if (didIdx != -1 && cardCursor.getLong(didIdx) != deckId) continue;
+                    sampler.offer(cardCursor.getLong(noteIdx));
                 }
-            } catch (IllegalArgumentException e) {
-                Log.w("AnkiDroidHelper", "Card deck filter not supported: " + e.getMessage());
-            } finally {
-                if (cardCursor != null) cardCursor.close();
+                ProviderMetrics.rows(CARDS_URI, read);
             }
+        } catch (IllegalArgumentException e) {
+            Log.w("AnkiDroidHelper", "Card deck filter not supported: " + e.getMessage());
+        } finally {
+            if (cardCursor != null) cardCursor.close();
         }
-        int cardTablePulled = noteIds.size() - reviewPulled - noteTablePulled;
+        int cardTablePulled = sampler.distinctSeen();
 
-        // Fallback: if still insufficient, try note search by deck name and filter cards by deckId.
+        // Fallback: if the card table was unavailable, search notes by deck name. Excluding subdecks in the
+        // search makes every hit a card owner in this exact deck, so no per-note deck check is needed.
         int deckSearchPulled = 0;
-        if (noteIds.size() < cap) {
+        boolean exactSearch = false;
+        if (cardTablePulled == 0 && !sampler.isFull()) {
             String deckName = null;
             try {
                 deckName = mApi.getDeckName(deckId);
             } catch (Exception ignored) {
             }
             if (deckName != null && !deckName.isEmpty()) {
-                String escaped = deckName.replace("\"", "\\\"");
-                String search = "deck:\"" + escaped + "\"";
-                Cursor searchCursor = null;
-                try {
-                    searchCursor = mContext.getContentResolver().query(
-                            FlashCardsContract.Note.CONTENT_URI,
-                            new String[]{FlashCardsContract.Note._ID},
-                            search,
-                            null,
-                            null
-                    );
-                    if (searchCursor != null) {
-                        int idIdx = searchCursor.getColumnIndex(FlashCardsContract.Note._ID);
-                        while (searchCursor.moveToNext() && noteIds.size() < cap) {
-                            if (idIdx == -1) continue;
-                            long nid = searchCursor.getLong(idIdx);
-                            // Ensure this note has at least one card in the target deck.
-                            Uri noteBase = Uri.withAppendedPath(FlashCardsContract.Note.CONTENT_URI, Long.toString(nid));
-                            Uri cardsUri = Uri.withAppendedPath(noteBase, "cards");
-                            Cursor cardCursor = null;
-                            boolean inDeck = false;
-                            try {
-                                cardCursor = mContext.getContentResolver().query(
-                                        cardsUri,
-                                        new String[]{FlashCardsContract.Card.DECK_ID},
-                                        null,
-                                        null,
-                                        null
-                                );
-                                if (cardCursor != null) {
-                                    int didIdx = cardCursor.getColumnIndex(FlashCardsContract.Card.DECK_ID);
-                                    while (cardCursor.moveToNext()) {
-                                        if (didIdx != -1 && cardCursor.getLong(didIdx) == deckId) {
-                                            inDeck = true;
-                                            break;
-                                        }
-                                    }
-                                }
-                            } catch (IllegalArgumentException e) {
-                                Log.w("AnkiDroidHelper", "Note search card filter failed for note " + nid + ": " + e.getMessage());
-                            } finally {
-                                if (cardCursor != null) cardCursor.close();
-                            }
-                            if (inDeck && !noteIds.contains(nid)) {
-                                noteIds.add(nid);
-                                deckSearchPulled++;
-                            }
-                        }
-                    }
-                } catch (IllegalArgumentException e) {
-                    Log.w("AnkiDroidHelper", "Note search by deck not supported: " + e.getMessage());
-                } finally {
-                    if (searchCursor != null) searchCursor.close();
+                String search = "deck:" + quoteSearchTerm(deckName) + " -deck:" + quoteSearchTerm(deckName + "::*");
+                deckSearchPulled = searchDeckNotes(search, deckId, sampler, false);
+                exactSearch = deckSearchPulled >= 0;
+                if (!exactSearch) {
+                    deckSearchPulled = Math.max(0, searchDeckNotes("deck:" + quoteSearchTerm(deckName), deckId, sampler, true));
                 }
             }
         }
 
-        if (noteIds.isEmpty()) return result;
-        Collections.shuffle(noteIds);
-        final Set<TemplateKey> storedTemplates = ignoreTemplateFilter
-                ? java.util.Collections.emptySet()
-                : UserPreferences.INSTANCE.getTemplateFilter(mContext);
-        Set<TemplateKey> allowedTemplates = storedTemplates;
-        if (!ignoreTemplateFilter && !storedTemplates.isEmpty()) {
-            // Workaround: if template list for this deck cannot be loaded or has no overlap, ignore filter.
-            List<TemplateOption> deckTemplates = getTemplateOptionsForDeck(deckId);
-            if (deckTemplates.isEmpty()) {
-                allowedTemplates = java.util.Collections.emptySet();
-            } else {
-                Set<TemplateKey> deckKeys = new LinkedHashSet<>();
-                for (TemplateOption opt : deckTemplates) {
-                    deckKeys.add(new TemplateKey(opt.modelId, opt.ord));
-                }
-                boolean overlaps = false;
-                for (TemplateKey key : storedTemplates) {
-                    if (deckKeys.contains(key)) {
-                        overlaps = true;
-                        break;
-                    }
-                }
-                if (!overlaps) {
-                    allowedTemplates = java.util.Collections.emptySet();
-                }
-            }
+        if (cardTablePulled > 0 || exactSearch) {
+            DeckNoteIndex.getInstance(mContext).put(deckId, sampler.distinctSorted());
         }
-        Map<Long, Integer> modelCardCountCache = new HashMap<>();
+        Log.d("AnkiDroidHelper", "scanDeckNotes: deckId=" + deckId + " sampled=" + sampler.size() + " cardTablePull=" + cardTablePulled + " deckSearchPull=" + deckSearchPulled);
+        return sampler.shuffledSample();
+    }
 
-        Log.d("AnkiDroidHelper", "fetchRandomDeckCards: deckId=" + deckId + " noteCount=" + noteIds.size() + " target=" + targetCount + " sampleLimit=" + cap + " templateFilterSize=" + allowedTemplates.size() + " ignoreFilter=" + ignoreTemplateFilter + " reviewPull=" + reviewPulled + " noteTablePull=" + noteTablePulled + " cardTablePull=" + cardTablePulled + " deckSearchPull=" + deckSearchPulled);
-        for (Long noteId : noteIds) {
-            if (result.size() >= targetCount) break;
-            long modelId = fetchModelId(noteId);
-            if (modelId == -1) continue;
-            int numCards = getModelCardCount(modelId, modelCardCountCache);
-            if (numCards <= 0) continue;
+    private static String quoteSearchTerm(String term) {
+        return "\"" + term.replace("\"", "\\\"") + "\"";
+    }
 
-            ArrayList<Integer> ords = new ArrayList<>();
-            for (int ord = 0; ord < numCards; ord++) {
-                if (allowedTemplates.isEmpty() || templateMatches(allowedTemplates, new TemplateKey(modelId, ord))) {
-                    ords.add(ord);
-                }
+    /**
+     * Feed the notes matching a Note search into the sampler. With {@code verifyMembership} the search may
+     * also match subdecks, so each new note is checked with a notes/&lt;id&gt;/cards query; after
+     * {@link #MEMBERSHIP_CHECK_BUDGET} checks the remaining hits are taken unchecked so a huge deck cannot
+     * stall the refresh.
+     * @return the number of notes added, or -1 if the provider rejected the search
+     */
+    private int searchDeckNotes(String search, long deckId, ReservoirSampler sampler, boolean verifyMembership) {
+        Cursor searchCursor = null;
+        try {
+            searchCursor = ProviderMetrics.query(mContext.getContentResolver(),
+                    FlashCardsContract.Note.CONTENT_URI,
+                    new String[]{FlashCardsContract.Note._ID},
+                    search,
+                    null,
+                    null
+            );
+            int idIdx = searchCursor != null ? searchCursor.getColumnIndex(FlashCardsContract.Note._ID) : -1;
+            if (idIdx == -1) {
+                return -1;
             }
-            if (ords.isEmpty()) continue;
-            Collections.shuffle(ords);
-            Uri noteBase = Uri.withAppendedPath(FlashCardsContract.Note.CONTENT_URI, Long.toString(noteId));
-            Uri cardsUri = Uri.withAppendedPath(noteBase, "cards");
-            for (Integer ord : ords) {
-                if (result.size() >= targetCount) break;
-                Uri specificCardUri = Uri.withAppendedPath(cardsUri, Integer.toString(ord));
-                Cursor specificCardCursor = null;
-                try {
-                    specificCardCursor = mContext.getContentResolver().query(
-                            specificCardUri,
-                            CARD_PROJECTION,
-                            null,
-                            null,
-                            null
-                    );
-                    if (specificCardCursor != null && specificCardCursor.moveToFirst()) {
-                        CardInfo card = new CardInfo();
-                        card.cardOrd = ord;
-                        card.noteID = noteId;
-                        card.modelId = modelId;
-                        card.rawAnswer = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.ANSWER));
-                        card.rawQuestion = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.QUESTION));
-                        card.simpleAnswer = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.ANSWER_PURE));
-                        card.simpleQuestion = specificCardCursor.getString(specificCardCursor.getColumnIndex(FlashCardsContract.Card.QUESTION_SIMPLE));
-                        card.a = card.rawAnswer != null && !card.rawAnswer.isEmpty() ? card.rawAnswer : card.simpleAnswer;
-                        card.q = card.rawQuestion != null && !card.rawQuestion.isEmpty() ? card.rawQuestion : card.simpleQuestion;
-                        card.cardStartTime = System.currentTimeMillis();
-                        result.add(card);
+            int added = 0;
+            int checksLeft = MEMBERSHIP_CHECK_BUDGET;
+            int unchecked = 0;
+            int read = 0;
+            while (searchCursor.moveToNext()) {
+                read++;
+                long nid = searchCursor.getLong(idIdx);
+                if (sampler.contains(nid)) continue;
+                if (verifyMembership) {
+                    if (checksLeft > 0) {
+                        checksLeft--;
+                        if (!noteHasCardInDeck(nid, deckId)) continue;
                     } else {
-                        Log.w("AnkiDroidHelper", "No card for note " + noteId + " ord " + ord + ", skipping.");
-                    }
-                } catch (IllegalArgumentException e) {
-                    Log.w("AnkiDroidHelper", "Query failed for note " + noteId + " ord " + ord + ": " + e.getMessage());
-                } catch (Exception e) {
-                    Log.w("AnkiDroidHelper", "Unexpected error for note " + noteId + " ord " + ord + ": " + e.getMessage());
-                } finally {
-                    if (specificCardCursor != null) {
-                        specificCardCursor.close();
+                        unchecked++;
                     }
                 }
+                if (sampler.offer(nid)) {
+                    added++;
+                }
+            }
+            ProviderMetrics.rows(FlashCardsContract.Note.CONTENT_URI, read);
+            if (unchecked > 0) {
+                Log.w("AnkiDroidHelper", "Deck membership check budget spent for deck " + deckId + "; took " + unchecked + " search hits unchecked");
             }
+            return added;
+        } catch (IllegalArgumentException e) {
+            Log.w("AnkiDroidHelper", "Note search by deck not supported (" + search + "): " + e.getMessage());
+            return -1;
+        } finally {
+            if (searchCursor != null) searchCursor.close();
         }
-        Log.d("AnkiDroidHelper", "fetchRandomDeckCards: built cards=" + result.size() + " ignoreFilter=" + ignoreTemplateFilter);
-        if (result.isEmpty() && !ignoreTemplateFilter && !UserPreferences.INSTANCE.getTemplateFilter(mContext).isEmpty()) {
-            Log.w("AnkiDroidHelper", "No random cards matched template filter; falling back to all templates for deck " + deckId);
-            return fetchRandomDeckCardsInternal(deckId, targetCount, cap, true, useReviewQueue);
+    }
+
+    /**
+     * Whether the note has at least one card in the deck; one notes/&lt;id&gt;/cards query.
+     */
+    private boolean noteHasCardInDeck(long noteId, long deckId) {
+        Uri noteBase = Uri.withAppendedPath(FlashCardsContract.Note.CONTENT_URI, Long.toString(noteId));
+        Uri cardsUri = Uri.withAppendedPath(noteBase, "cards");
+        Cursor cardCursor = null;
+        try {
+            cardCursor = ProviderMetrics.query(mContext.getContentResolver(),
+                    cardsUri,
+                    new String[]{FlashCardsContract.Card.DECK_ID},
+                    null,
+                    null,
+                    null
+            );
+            if (cardCursor != null) {
+                int didIdx = cardCursor.getColumnIndex(FlashCardsContract.Card.DECK_ID);
+                int read = 0;
+                while (didIdx != -1 && cardCursor.moveToNext()) {
+                    read++;
+                    if (cardCursor.getLong(didIdx) == deckId) {
+                        ProviderMetrics.rows(cardsUri, read);
+                        return true;
+                    }
+                }
+                ProviderMetrics.rows(cardsUri, read);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w("AnkiDroidHelper", "Note search card filter failed for note " + noteId + ": " + e.getMessage());
+        } finally {
+            if (cardCursor != null) cardCursor.close();
         }
-        return result;
+        return false;
     }
 
-    private int getModelCardCount(long modelId, Map<Long, Integer> cache) {
-        if (cache.containsKey(modelId)) return cache.get(modelId);
-        int numCards = 0;
-        Uri modelUri = Uri.withAppendedPath(FlashCardsContract.Model.CONTENT_URI, Long.toString(modelId));
-        Cursor modelCursor = mContext.getContentResolver().query(
-                modelUri,
-                new String[]{FlashCardsContract.Model.NUM_CARDS},
-                null,
-                null,
-                null
-        );
-        if (modelCursor != null) {
+    /**
+     * Load question/answer content for the given cards with as few provider round-trips as possible.
+     * Cards in {@link CardContentCache} are served from it; the rest are grouped by note id and read through bulk queries on the cards URI; only if the provider
+     * rejects the bulk selection do the remaining cards fall back to one note/&lt;id&gt;/cards/&lt;ord&gt; query each.
+     * @return the cards whose content was loaded, in input order
+     */
+    private List<CardInfo> enrichCards(List<CardInfo> cards) {
+        ArrayList<CardInfo> loaded = new ArrayList<>();
+        if (cards.isEmpty()) {
+            return loaded;
+        }
+        Set<CardInfo> pending = new HashSet<>(cards);
+        CardContentCache contentCache = CardContentCache.getInstance(mContext);
+        Map<Long, List<CardInfo>> byNote = new LinkedHashMap<>();
+        for (CardInfo card : cards) {
+            CardContent cached = contentCache.get(card.noteID, card.cardOrd);
+            if (cached != null) {
+                card.setContent(cached);
+                pending.remove(card);
+                continue;
+            }
+            List<CardInfo> group = byNote.get(card.noteID);
+            if (group == null) {
+                group = new ArrayList<>();
+                byNote.put(card.noteID, group);
+            }
+            group.add(card);
+        }
+        // A single card costs one query either way, so go straight to its own URI.
+        boolean bulkSupported = pending.size() > 1;
+        List<Long> noteIds = new ArrayList<>(byNote.keySet());
+        for (int start = 0; bulkSupported && start < noteIds.size(); start += ENRICH_BATCH_SIZE) {
+            List<Long> chunk = noteIds.subList(start, Math.min(noteIds.size(), start + ENRICH_BATCH_SIZE));
+            StringBuilder selection = new StringBuilder(FlashCardsContract.Card.NOTE_ID).append(" IN (");
+            String[] args = new String[chunk.size()];
+            for (int i = 0; i < chunk.size(); i++) {
+                selection.append(i == 0 ? "?" : ",?");
+                args[i] = String.valueOf(chunk.get(i));
+            }
+            selection.append(')');
+            Cursor cursor = null;
             try {
-                if (modelCursor.moveToFirst()) {
-                    numCards = modelCursor.getInt(modelCursor.getColumnIndex(FlashCardsContract.Model.NUM_CARDS));
+                cursor = ProviderMetrics.query(mContext.getContentResolver(), CARDS_URI, BULK_CARD_PROJECTION, selection.toString(), args, null);
+                int noteIdx = cursor != null ? cursor.getColumnIndex(FlashCardsContract.Card.NOTE_ID) : -1;
+                int ordIdx = cursor != null ? cursor.getColumnIndex(FlashCardsContract.Card.CARD_ORD) : -1;
+                if (noteIdx == -1 || ordIdx == -1) {
+                    bulkSupported = false;
+                    break;
                 }
+                int[] columns = contentColumns(cursor);
+                int matched = 0;
+                int read = 0;
+                while (cursor.moveToNext()) {
+                    read++;
+                    // Rows for other notes show up when the provider ignores the selection; skip them.
+                    List<CardInfo> group = byNote.get(cursor.getLong(noteIdx));
+                    if (group == null) continue;
+                    int ord = cursor.getInt(ordIdx);
+                    for (CardInfo card : group) {
+                        if (card.cardOrd == ord && pending.remove(card)) {
+                            applyCardContent(card, cursor, columns);
+                            matched++;
+                        }
+                    }
+                }
+                ProviderMetrics.rows(CARDS_URI, read);
+                if (matched == 0) {
+                    // Every requested note has cards, so an empty answer means the selection was not understood.
+                    bulkSupported = false;
+                }
+            } catch (IllegalArgumentException e) {
+                Log.w("AnkiDroidHelper", "Bulk card query not supported: " + e.getMessage());
+                bulkSupported = false;
             } finally {
-                modelCursor.close();
+                if (cursor != null) cursor.close();
+            }
+        }
+        if (!bulkSupported) {
+            for (CardInfo card : cards) {
+                if (pending.contains(card) && queryCardContent(card)) {
+                    pending.remove(card);
+                }
+            }
+        }
+        for (CardInfo card : cards) {
+            if (!pending.contains(card)) {
+                loaded.add(card);
+            }
+        }
+        if (!pending.isEmpty()) {
+            Log.w("AnkiDroidHelper", "No content for " + pending.size() + " of " + cards.size() + " cards, skipping.");
+            // The card may be gone because its note changed type; look the model up again next time.
+            NoteModelIndex noteModels = NoteModelIndex.getInstance(mContext);
+            for (CardInfo card : pending) {
+                noteModels.invalidate(card.noteID);
+            }
+        }
+        return loaded;
+    }
+
+    private boolean queryCardContent(CardInfo card) {
+        Uri noteUri = Uri.withAppendedPath(FlashCardsContract.Note.CONTENT_URI, Long.toString(card.noteID));
+        Uri cardsUri = Uri.withAppendedPath(noteUri, "cards");
+        Uri specificCardUri = Uri.withAppendedPath(cardsUri, Integer.toString(card.cardOrd));
+        Cursor specificCardCursor = null;
+        try {
+            specificCardCursor = ProviderMetrics.query(mContext.getContentResolver(), specificCardUri,
+                    CARD_PROJECTION,  // projection
+                    null,  // selection is ignored for this URI
+                    null,  // selectionArgs is ignored for this URI
+                    null   // sortOrder is ignored for this URI
+            );
+            if (specificCardCursor != null && specificCardCursor.moveToFirst()) {
+                ProviderMetrics.rows(specificCardUri, 1);
+                applyCardContent(card, specificCardCursor, contentColumns(specificCardCursor));
+                return true;
+            }
+        } catch (RuntimeException e) {
+            Log.w("AnkiDroidHelper", "Query failed for note " + card.noteID + " ord " + card.cardOrd + ": " + e.getMessage());
+        } finally {
+            if (specificCardCursor != null) {
+                specificCardCursor.close();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Indices of the question, answer, simple question and simple answer columns, resolved once per cursor.
+     */
+    private static int[] contentColumns(Cursor cursor) {
+        return new int[]{
+                cursor.getColumnIndex(FlashCardsContract.Card.QUESTION),
+                cursor.getColumnIndex(FlashCardsContract.Card.ANSWER),
+                cursor.getColumnIndex(FlashCardsContract.Card.QUESTION_SIMPLE),
+                cursor.getColumnIndex(FlashCardsContract.Card.ANSWER_PURE)
+        };
+    }
+
+    private void applyCardContent(CardInfo card, Cursor cursor, int[] columns) {
+        CardContent content = new CardContent(
+                columns[0] != -1 ? cursor.getString(columns[0]) : null,
+                columns[1] != -1 ? cursor.getString(columns[1]) : null,
+                columns[2] != -1 ? cursor.getString(columns[2]) : null,
+                columns[3] != -1 ? cursor.getString(columns[3]) : null);
+        card.setContent(content);
+        CardContentCache.getInstance(mContext).put(card.noteID, card.cardOrd, content);
+    }
+
+    /**
+     * Content for a lazily loaded card: from {@link CardContentCache}, else one provider query.
+     * @return the content, or null if AnkiDroid no longer has the card
+     */
+    CardContent loadCardContent(CardInfo card) {
+        CardContent cached = CardContentCache.getInstance(mContext).get(card.noteID, card.cardOrd);
+        if (cached != null) {
+            card.setContent(cached);
+            return cached;
+        }
+        return queryCardContent(card) ? card.loadedContent() : null;
+    }
+
+    /**
+     * Leave content loading to the first render of each card; cards already in the content cache get it now.
+     */
+    private void deferContent(List<CardInfo> cards) {
+        CardContentCache contentCache = CardContentCache.getInstance(mContext);
+        for (CardInfo card : cards) {
+            CardContent cached = contentCache.get(card.noteID, card.cardOrd);
+            if (cached != null) {
+                card.setContent(cached);
+            } else {
+                card.setContentLoader(contentCache);
             }
         }
-        cache.put(modelId, numCards);
-        return numCards;
     }
 
-    public boolean reviewCard(long noteID, int cardOrd, long cardStartTime, int ease) {
+    /**
+     * Record an answer for the card. The answer is journaled and submitted to AnkiDroid in the background,
+     * so this returns without waiting for the provider; see {@link ReviewJournal}.
+     * @return false if the answer could not be recorded
+     */
+    public boolean reviewCard(long deckId, long noteID, int cardOrd, long cardStartTime, int ease) {
         long timeTaken = System.currentTimeMillis() - cardStartTime;
+        return ReviewJournal.getInstance(mContext).append(deckId, noteID, cardOrd, ease, timeTaken);
+    }
+
+    /**
+     * Submit one answer to AnkiDroid synchronously. Only the review journal calls this.
+     * @return false if AnkiDroid rejected the answer or could not be reached
+     */
+    boolean submitReview(long noteID, int cardOrd, int ease, long timeTaken) {
         ContentResolver cr = mContext.getContentResolver();
         Uri reviewInfoUri = FlashCardsContract.ReviewInfo.CONTENT_URI;
         ContentValues values = new ContentValues();
@@ -723,9 +931,8 @@ public class AnkiDroidHelper {
         values.put(FlashCardsContract.ReviewInfo.CARD_ORD, cardOrd);
         values.put(FlashCardsContract.ReviewInfo.EASE, ease);
         values.put(FlashCardsContract.ReviewInfo.TIME_TAKEN, timeTaken);
-        // Log.d(TAG, timeTaken + " time taken " + values.getAsLong(FlashCardsContract.ReviewInfo.TIME_TAKEN));
         try {
-            cr.update(reviewInfoUri, values, null, null);
+            ProviderMetrics.update(cr, reviewInfoUri, values, null, null);
             return true;
         } catch (RuntimeException e) {
             Log.w("AnkiDroidHelper", "Failed to submit review, card may have changed", e);
@@ -733,44 +940,6 @@ public class AnkiDroidHelper {
         }
     }
 
-    private long fetchModelId(long noteId) {
-        Uri noteUri = Uri.withAppendedPath(FlashCardsContract.Note.CONTENT_URI, Long.toString(noteId));
-        Cursor cursor = mContext.getContentResolver().query(
-                noteUri,
-                new String[]{FlashCardsContract.Note.MID},
-                null,
-                null,
-                null
-        );
-        if (cursor == null) {
-            return -1;
-        }
-        try {
-            if (cursor.moveToFirst()) {
-                return cursor.getLong(cursor.getColumnIndex(FlashCardsContract.Note.MID));
-            }
-        } finally {
-            cursor.close();
-        }
-        return -1;
-    }
-
-    private boolean templateMatches(Set<TemplateKey> allowed, TemplateKey candidate) {
-        for (TemplateKey key : allowed) {
-            if (key.modelId >= 0) {
-                if (key.modelId == candidate.modelId && key.ord == candidate.ord) {
-                    return true;
-                }
-            } else {
-                // backward compatibility: match on ord only
-                if (key.ord == candidate.ord) {
-                    return true;
-                }
-            }
-        }
-        return false;
-    }
-
     public List<TemplateOption> getTemplateOptionsForDeck(long deckId) {
         List<TemplateOption> result = new ArrayList<>();
         if (deckId == -1L || !isPermissionGranted()) {
@@ -779,10 +948,10 @@ public class AnkiDroidHelper {
 
         // Collect models seen in the current deck's review queue. This avoids picking up templates
         // from other decks when provider parameters are ignored.
-        Set<Long> modelIds = new LinkedHashSet<>();
+        Set<Long> noteIds = new LinkedHashSet<>();
         String selection = "deckID=?";
         String[] args = new String[]{String.valueOf(deckId)};
-        Cursor reviewCursor = mContext.getContentResolver().query(
+        Cursor reviewCursor = ProviderMetrics.query(mContext.getContentResolver(),
                 FlashCardsContract.ReviewInfo.CONTENT_URI,
                 new String[]{FlashCardsContract.ReviewInfo.NOTE_ID},
                 selection,
@@ -792,19 +961,26 @@ public class AnkiDroidHelper {
         if (reviewCursor != null) {
             try {
                 int noteIdx = reviewCursor.getColumnIndex(FlashCardsContract.ReviewInfo.NOTE_ID);
+                int read = 0;
                 if (noteIdx != -1 && reviewCursor.moveToFirst()) {
                     do {
-                        long noteId = reviewCursor.getLong(noteIdx);
-                        long modelId = fetchModelId(noteId);
-                        if (modelId != -1) {
-                            modelIds.add(modelId);
-                        }
+                        read++;
+                        noteIds.add(reviewCursor.getLong(noteIdx));
                     } while (reviewCursor.moveToNext());
                 }
+                ProviderMetrics.rows(FlashCardsContract.ReviewInfo.CONTENT_URI, read);
             } finally {
                 reviewCursor.close();
             }
         }
+        Set<Long> modelIds = new LinkedHashSet<>();
+        Map<Long, Long> noteModels = NoteModelIndex.getInstance(mContext).resolve(noteIds);
+        for (Long noteId : noteIds) {
+            Long modelId = noteModels.get(noteId);
+            if (modelId != null) {
+                modelIds.add(modelId);
+            }
+        }
 
         if (modelIds.isEmpty()) {
             return result;
@@ -812,29 +988,14 @@ public class AnkiDroidHelper {
 
         // Build the full template list from those models (model name + template ord), dedup by (modelId, ord).
         Set<TemplateKey> templateKeys = new LinkedHashSet<>();
+        ModelCache models = ModelCache.getInstance(mContext);
         for (Long modelId : modelIds) {
-            Uri modelUri = Uri.withAppendedPath(FlashCardsContract.Model.CONTENT_URI, Long.toString(modelId));
-            Cursor modelCursor = mContext.getContentResolver().query(
-                    modelUri,
-                    new String[]{FlashCardsContract.Model.NAME, FlashCardsContract.Model.NUM_CARDS},
-                    null,
-                    null,
-                    null
-            );
-            if (modelCursor != null) {
-                try {
-                    if (modelCursor.moveToFirst()) {
-                        String modelName = modelCursor.getString(modelCursor.getColumnIndex(FlashCardsContract.Model.NAME));
-                        int numCards = modelCursor.getInt(modelCursor.getColumnIndex(FlashCardsContract.Model.NUM_CARDS));
-                        for (int ord = 0; ord < numCards; ord++) {
-                            TemplateKey key = new TemplateKey(modelId, ord);
-                            if (templateKeys.add(key)) {
-                                result.add(new TemplateOption(modelId, ord, null, modelName));
-                            }
-                        }
-                    }
-                } finally {
-                    modelCursor.close();
+            ModelCache.Entry model = models.get(modelId);
+            if (model == null) continue;
+            for (int ord = 0; ord < model.numCards; ord++) {
+                TemplateKey key = new TemplateKey(modelId, ord);
+                if (templateKeys.add(key)) {
+                    result.add(new TemplateOption(modelId, ord, null, model.name));
                 }
             }
         }
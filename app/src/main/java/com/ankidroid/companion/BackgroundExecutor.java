@@ -0,0 +1,90 @@
+package com.ankidroid.companion;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Small bounded pool for provider work triggered from broadcasts. Tasks submitted under the same lane run
+ * strictly one after another, so state owned by a lane never needs extra locking.
+ */
+final class BackgroundExecutor {
+    private static final int MAX_THREADS = 2;
+
+    private static final ThreadPoolExecutor POOL;
+    private static final Map<String, Lane> LANES = new HashMap<>();
+    private static final Handler MAIN = new Handler(Looper.getMainLooper());
+
+    static {
+        ThreadFactory factory = new ThreadFactory() {
+            private final AtomicInteger count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, "companion-bg-" + count.incrementAndGet());
+            }
+        };
+        POOL = new ThreadPoolExecutor(MAX_THREADS, MAX_THREADS, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), factory);
+        POOL.allowCoreThreadTimeOut(true);
+    }
+
+    private BackgroundExecutor() {
+    }
+
+    /**
+     * Run the task on the pool after every task previously submitted to the same lane has finished.
+     */
+    static void execute(String lane, Runnable task) {
+        Lane target;
+        synchronized (LANES) {
+            target = LANES.get(lane);
+            if (target == null) {
+                target = new Lane();
+                LANES.put(lane, target);
+            }
+        }
+        target.execute(task);
+    }
+
+    static void executeDelayed(String lane, Runnable task, long delayMs) {
+        MAIN.postDelayed(() -> execute(lane, task), delayMs);
+    }
+
+    private static final class Lane {
+        private final ArrayDeque<Runnable> tasks = new ArrayDeque<>();
+        private Runnable active;
+
+        synchronized void execute(Runnable task) {
+            tasks.offer(() -> {
+                try {
+                    task.run();
+                } finally {
+                    scheduleNext();
+                }
+            });
+            if (active == null) {
+                scheduleNext();
+            }
+        }
+
+        private synchronized void scheduleNext() {
+            active = tasks.poll();
+            if (active != null) {
+                POOL.execute(active);
+            }
+        }
+    }
+}
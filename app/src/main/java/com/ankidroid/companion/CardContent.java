@@ -0,0 +1,29 @@
+package com.ankidroid.companion;
+
+/**
+ * Question and answer HTML of one card as returned by the provider. Immutable, so one instance can be
+ * shared between the content cache and any number of CardInfo handles.
+ */
+final class CardContent {
+    static final CardContent EMPTY = new CardContent("", "", "", "");
+
+    final String rawQuestion;
+    final String rawAnswer;
+    final String simpleQuestion;
+    final String simpleAnswer;
+
+    CardContent(String rawQuestion, String rawAnswer, String simpleQuestion, String simpleAnswer) {
+        this.rawQuestion = rawQuestion;
+        this.rawAnswer = rawAnswer;
+        this.simpleQuestion = simpleQuestion;
+        this.simpleAnswer = simpleAnswer;
+    }
+
+    String question() {
+        return rawQuestion != null && !rawQuestion.isEmpty() ? rawQuestion : simpleQuestion;
+    }
+
+    String answer() {
+        return rawAnswer != null && !rawAnswer.isEmpty() ? rawAnswer : simpleAnswer;
+    }
+}
@@ -0,0 +1,127 @@
+package com.ankidroid.companion;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ichi2.anki.FlashCardsContract;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide LRU of card content, and the loader behind lazy CardInfo handles. Fetch paths hand out
+ * cards with ids and scheduling data only; content is read from here, or from AnkiDroid on a miss, the
+ * first time a card is rendered. Entries are dropped when AnkiDroid reports a note change.
+ */
+final class CardContentCache implements CardInfo.ContentLoader {
+    private static final String TAG = "CardContentCache";
+    // A few widget cards, the notification card and their neighbours; content is the bulk of a card.
+    private static final int MAX_ENTRIES = 32;
+    private static final long TTL_MS = 30 * 60 * 1000L;
+
+    private static final class Key {
+        final long noteId;
+        final int ord;
+
+        Key(long noteId, int ord) {
+            this.noteId = noteId;
+            this.ord = ord;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return noteId == that.noteId && ord == that.ord;
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * Long.hashCode(noteId) + ord;
+        }
+    }
+
+    private static final class Entry {
+        final CardContent content;
+        final long loadedAt;
+
+        Entry(CardContent content, long loadedAt) {
+            this.content = content;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static CardContentCache sInstance;
+
+    private final Context context;
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Key, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private CardContentCache(Context context) {
+        this.context = context.getApplicationContext();
+        try {
+            this.context.getContentResolver().registerContentObserver(
+                    FlashCardsContract.Note.CONTENT_URI,
+                    true,
+                    new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            invalidate();
+                        }
+                    });
+        } catch (SecurityException e) {
+            // AnkiDroid missing or not yet granted; the TTL still bounds staleness.
+            Log.w(TAG, "Note observer not registered: " + e.getMessage());
+        }
+    }
+
+    static synchronized CardContentCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new CardContentCache(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Forget the instance so the next {@link #getInstance} starts from a fresh context; for tests.
+     */
+    static synchronized void resetInstance() {
+        sInstance = null;
+    }
+
+    /**
+     * @return the cached content of the card, or null on a miss
+     */
+    synchronized CardContent get(long noteId, int ord) {
+        Key key = new Key(noteId, ord);
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (SystemClock.elapsedRealtime() - entry.loadedAt >= TTL_MS) {
+            entries.remove(key);
+            return null;
+        }
+        return entry.content;
+    }
+
+    synchronized void put(long noteId, int ord, CardContent content) {
+        entries.put(new Key(noteId, ord), new Entry(content, SystemClock.elapsedRealtime()));
+    }
+
+    synchronized void invalidate() {
+        entries.clear();
+    }
+
+    @Override
+    public CardContent load(CardInfo card) {
+        return new AnkiDroidHelper(context).loadCardContent(card);
+    }
+}
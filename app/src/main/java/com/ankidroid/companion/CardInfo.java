@@ -2,21 +2,33 @@ package com.ankidroid.companion;
 
 import android.net.Uri;
 import org.json.JSONArray;
+import org.json.JSONException;
 import java.util.ArrayList;
 
 public class CardInfo {
-    String q = "", a = "";
-    String rawQuestion = "", rawAnswer = "";
-    String simpleQuestion = "", simpleAnswer = "";
     int cardOrd;
     long modelId = -1;
     long noteID;
     int buttonCount;
-    JSONArray nextReviewTexts = null;
-    JSONArray fileNames;
+    // Raw JSON columns of the review queue; parsed on first use.
+    String nextReviewTimesJson;
+    String mediaFilesJson;
+    private JSONArray nextReviewTexts;
+    private JSONArray fileNames;
     ArrayList<Uri> soundUris = null;
     long cardStartTime;
 
+    // Question/answer HTML; null until loaded, either up front or through the loader on first access.
+    private CardContent content;
+    private ContentLoader contentLoader;
+
+    interface ContentLoader {
+        /**
+         * @return the content of the card, or null if it cannot be loaded
+         */
+        CardContent load(CardInfo card);
+    }
+
     public synchronized void addSoundUri(Uri path) {
         Uri uri = path;//Uri.fromFile(new File(path));
 
@@ -26,4 +38,80 @@ public class CardInfo {
 
         soundUris.add(uri);
     }
+
+    /**
+     * @return the next review interval labels per button, or null if unknown
+     */
+    synchronized JSONArray nextReviewTexts() {
+        if (nextReviewTexts == null) {
+            nextReviewTexts = parseArray(nextReviewTimesJson);
+        }
+        return nextReviewTexts;
+    }
+
+    /**
+     * @return the media file names of the card, or null if unknown
+     */
+    synchronized JSONArray fileNames() {
+        if (fileNames == null) {
+            fileNames = parseArray(mediaFilesJson);
+        }
+        return fileNames;
+    }
+
+    private static JSONArray parseArray(String json) {
+        if (json == null || json.isEmpty()) {
+            return null;
+        }
+        try {
+            return new JSONArray(json);
+        } catch (JSONException e) {
+            e.printStackTrace();
+            return null;
+        }
+    }
+
+    synchronized void setContent(CardContent content) {
+        this.content = content;
+        this.contentLoader = null;
+    }
+
+    /**
+     * Defer content loading to the first {@link #content()} call; ignored if content is already set.
+     */
+    synchronized void setContentLoader(ContentLoader loader) {
+        if (content == null) {
+            this.contentLoader = loader;
+        }
+    }
+
+    /**
+     * @return the content if already loaded, without loading it
+     */
+    synchronized CardContent loadedContent() {
+        return content;
+    }
+
+    /**
+     * The card's content, loaded on first access. Empty if it cannot be loaded; a later call tries again.
+     */
+    CardContent content() {
+        ContentLoader loader;
+        synchronized (this) {
+            if (content != null) return content;
+            loader = contentLoader;
+        }
+        // Load outside the lock; it may query AnkiDroid.
+        CardContent loaded = loader != null ? loader.load(this) : null;
+        if (loaded == null) {
+            return CardContent.EMPTY;
+        }
+        synchronized (this) {
+            if (content == null) {
+                content = loaded;
+                contentLoader = null;
+            }
+            return content;
+        }
+    }
 }
@@ -23,40 +23,142 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
     public static final String ACTION_RANDOM_NEXT = "com.ankidroid.companion.widget.RANDOM_NEXT";
     public static final String ACTION_RANDOM_REFRESH = "com.ankidroid.companion.widget.RANDOM_REFRESH";
     public static final String ACTION_RANDOM_RESERVED = "com.ankidroid.companion.widget.RANDOM_RESERVED";
+    // All widget instances share the static state below, so their work runs on a single serial lane.
+    private static final String WIDGET_LANE = "widget";
     private final Handler handler = new Handler(Looper.getMainLooper());
     private static long lastToastTimeMs = 0L;
     private static final long TOAST_COOLDOWN_MS = 3000L;
     private static boolean pendingRetry = false;
     private static long pendingNoteId = -1;
     private static int pendingOrd = -1;
-    // Random mode cache
-    private static final java.util.LinkedList<CardInfo> randomQueue = new java.util.LinkedList<>();
-    private static int randomIndex = -1;
-    private static boolean randomRoamActive = false;
-    private static int lastQueueSize = -1;
+    // Random mode pool; refilled in the background once fewer than this many cards are queued.
+    private static final RandomCardPool randomPool = new RandomCardPool();
+
+    // What each widget instance was last sent, so refreshes that change nothing skip the push to the launcher.
+    private static final class RenderedWidget {
+        final java.util.List<Object> contentKey;
+        final boolean shortLabels;
+
+        RenderedWidget(java.util.List<Object> contentKey, boolean shortLabels) {
+            this.contentKey = contentKey;
+            this.shortLabels = shortLabels;
+        }
+    }
+
+    private static final java.util.Map<Integer, RenderedWidget> renderedWidgets = new java.util.concurrent.ConcurrentHashMap<>();
+
+    private static final int RANDOM_LOW_WATER = 2;
+    private static boolean randomRefillScheduled = false;
 
     @Override
     public void onUpdate(Context context, AppWidgetManager appWidgetManager, int[] appWidgetIds) {
-        for (int appWidgetId : appWidgetIds) {
-            updateWidget(context, appWidgetManager, appWidgetId, null);
+        WidgetChangeMonitor.getInstance(context).start();
+        // Resumes submitting answers journaled before the process died.
+        ReviewJournal.getInstance(context);
+        // After process death, render the last known card from disk first and revalidate right after.
+        CardInfo cached = cachedCardForStoredState(context);
+        // The host asked for these views; it may not hold anything from an earlier push.
+        forgetRendered(appWidgetIds);
+        renderAll(context, appWidgetManager, appWidgetIds, cached, null);
+        if (cached != null) {
+            BackgroundExecutor.execute(WIDGET_LANE, () -> refreshAndUpdate(context));
+        }
+    }
+
+    @Override
+    public void onDisabled(Context context) {
+        WidgetChangeMonitor.getInstance(context).stop();
+    }
+
+    @Override
+    public void onDeleted(Context context, int[] appWidgetIds) {
+        forgetRendered(appWidgetIds);
+    }
+
+    private static void forgetRendered(int[] appWidgetIds) {
+        if (appWidgetIds == null) return;
+        for (int id : appWidgetIds) {
+            renderedWidgets.remove(id);
+        }
+    }
+
+    private CardInfo cachedCardForStoredState(Context context) {
+        StoredState state = new AnkiDroidHelper(context).getStoredState();
+        if (state == null || state.deckId <= 0 || state.cardOrd == -1) {
+            return null;
         }
+        CardSourceMode mode = UserPreferences.INSTANCE.getCardSourceMode(context);
+        if (mode != CardSourceMode.REVIEW && randomPool.isFor(randomPoolKey(context, state.deckId, mode))) {
+            return randomPool.current();
+        }
+        return WidgetCardCache.getInstance(context).getCurrent(state.deckId, mode);
     }
 
     @Override
     public void onReceive(Context context, Intent intent) {
-        super.onReceive(context, intent);
-        if (intent == null) return;
+        if (intent == null) {
+            super.onReceive(context, intent);
+            return;
+        }
         String action = intent.getAction();
-        if (ACTION_REFRESH.equals(action)) {
-            refreshAndUpdate(context);
-        } else if (ACTION_OPEN_APP.equals(action)) {
+        if (ACTION_OPEN_APP.equals(action)) {
             Intent launch = context.getPackageManager().getLaunchIntentForPackage("com.ichi2.anki");
             if (launch == null) {
                 launch = new Intent(context, MainActivity.class);
             }
             launch.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
             context.startActivity(launch);
-        } else if (ACTION_RANDOM_PREV.equals(action) || ACTION_RANDOM_NEXT.equals(action) ||
+            return;
+        }
+        // Everything else may issue many provider queries; keep it off the broadcast (main) thread.
+        // goAsync() is null when callers invoke onReceive directly rather than through a broadcast.
+        final PendingResult pendingResult = goAsync();
+        final Context appContext = context.getApplicationContext();
+        // External refreshes (refresh button, rotation worker, settings) rotate the random card. The ticket
+        // is taken now so refreshes already queued on the lane can be answered by a single pass.
+        final RefreshCoordinator.Ticket refreshTicket = ACTION_REFRESH.equals(action) ? requestRefresh(appContext, true) : null;
+        BackgroundExecutor.execute(WIDGET_LANE, () -> {
+            try {
+                CompanionWidgetProvider.super.onReceive(appContext, intent);
+                if (refreshTicket != null) {
+                    RefreshCoordinator.run(refreshTicket, advance -> runRefresh(appContext, advance));
+                } else {
+                    handleAction(appContext, action);
+                }
+            } catch (RuntimeException e) {
+                android.util.Log.w("CompanionWidget", "Widget action failed: " + action, e);
+            } finally {
+                if (pendingResult != null) {
+                    pendingResult.finish();
+                }
+            }
+        });
+    }
+
+    /**
+     * Refresh every widget instance like {@link #ACTION_REFRESH} and return once the refresh has run, for
+     * callers that must keep the process alive until then (the rotation worker). The pass still runs on the
+     * widget lane, so it stays ordered with taps and other refreshes.
+     */
+    static void refreshBlocking(Context context) throws InterruptedException {
+        final Context appContext = context.getApplicationContext();
+        final CompanionWidgetProvider provider = new CompanionWidgetProvider();
+        final RefreshCoordinator.Ticket ticket = requestRefresh(appContext, true);
+        final java.util.concurrent.CountDownLatch done = new java.util.concurrent.CountDownLatch(1);
+        BackgroundExecutor.execute(WIDGET_LANE, () -> {
+            try {
+                RefreshCoordinator.run(ticket, advance -> provider.runRefresh(appContext, advance));
+            } catch (RuntimeException e) {
+                android.util.Log.w("CompanionWidget", "Widget refresh failed", e);
+            } finally {
+                done.countDown();
+            }
+        });
+        done.await();
+    }
+
+    private void handleAction(Context context, String action) {
+        if (ACTION_RANDOM_PREV.equals(action) || ACTION_RANDOM_NEXT.equals(action) ||
                 ACTION_RANDOM_REFRESH.equals(action) || ACTION_RANDOM_RESERVED.equals(action)) {
             handleRandomAction(context, action);
         } else if (ACTION_EASE_1.equals(action)) {
@@ -71,30 +173,60 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
     }
 
     private void refreshAndUpdate(Context context) {
+        refreshAndUpdate(context, false);
+    }
+
+    /**
+     * Refresh every widget instance now, unless a refresh for the same deck and mode that started after this
+     * request already covers it.
+     */
+    private void refreshAndUpdate(Context context, boolean advanceRandom) {
+        RefreshCoordinator.run(requestRefresh(context, advanceRandom), advance -> runRefresh(context, advance));
+    }
+
+    private static RefreshCoordinator.Ticket requestRefresh(Context context, boolean advanceRandom) {
+        StoredState state = new AnkiDroidHelper(context).getStoredState();
+        long deckId = state != null ? state.deckId : -1;
+        CardSourceMode mode = UserPreferences.INSTANCE.getCardSourceMode(context);
+        return RefreshCoordinator.request(deckId, mode, advanceRandom);
+    }
+
+    private void runRefresh(Context context, boolean advanceRandom) {
+        long start = ProviderMetrics.start();
+        boolean ok = false;
+        try {
+            renderWidgets(context, advanceRandom);
+            ok = true;
+        } finally {
+            ProviderMetrics.finish(ProviderMetrics.WIDGET_REFRESH, start, ok);
+        }
+    }
+
+    private void renderWidgets(Context context, boolean advanceRandom) {
         AppWidgetManager manager = AppWidgetManager.getInstance(context);
         int[] ids = manager.getAppWidgetIds(new ComponentName(context, CompanionWidgetProvider.class));
         if (ids == null || ids.length == 0) return;
+        // Restarts change monitoring after process death, when no onUpdate arrives.
+        WidgetChangeMonitor.getInstance(context).start();
 
         AnkiDroidHelper helper = new AnkiDroidHelper(context);
         StoredState state = helper.getStoredState();
         CardInfo card = null;
         String deckName = "";
+        CardSourceMode mode = UserPreferences.INSTANCE.getCardSourceMode(context);
+        java.util.List<CardInfo> toCache = null;
         if (state != null && state.deckId > 0 && helper.isPermissionGranted()) {
             try {
                 String dn = helper.getApi().getDeckName(state.deckId);
                 deckName = dn != null ? dn : "";
-                CardSourceMode mode = UserPreferences.INSTANCE.getCardSourceMode(context);
                 if (mode == CardSourceMode.REVIEW) {
-            card = helper.getTopCardForDeck(state.deckId);
-            randomQueue.clear();
-            randomIndex = -1;
-            randomRoamActive = false;
-            lastQueueSize = -1;
-        } else {
-            buildRandomCache(context, helper, state.deckId, mode);
-            if (randomIndex >= 0 && randomIndex < randomQueue.size()) {
-                card = randomQueue.get(randomIndex);
-            }
+                    card = helper.getTopCardForDeck(state.deckId);
+                    randomPool.clear();
+                    toCache = card != null ? java.util.Collections.singletonList(card) : java.util.Collections.<CardInfo>emptyList();
+                    schedulePrefetch(context, state.deckId, card);
+                } else {
+                    card = currentRandomCard(context, helper, state.deckId, mode, advanceRandom);
+                    toCache = randomPool.snapshot();
                 }
                 if (card != null) helper.storeState(state.deckId, card);
             } catch (Exception ignored) {
@@ -104,87 +236,130 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
         } else {
             android.util.Log.w("CompanionWidget", "refreshAndUpdate: missing state or permission. state=" + state);
         }
-        for (int id : ids) {
-            updateWidget(context, manager, id, card);
+        renderAll(context, manager, ids, card, deckName);
+        if (toCache != null) {
+            // After rendering, so the shown card is persisted with the content the render just loaded.
+            WidgetCardCache.getInstance(context).put(state.deckId, mode, toCache);
         }
     }
 
-    private void updateWidget(Context context, AppWidgetManager manager, int appWidgetId, CardInfo card) {
-        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_companion);
+    /**
+     * Render the card on every widget instance. The model is built once per refresh; each instance then gets
+     * a full update, a buttons-only partial update, or nothing if it already shows the same content.
+     * @param deckName the deck name if already known, or null to look it up
+     */
+    private void renderAll(Context context, AppWidgetManager manager, int[] ids, CardInfo card, String deckName) {
+        if (ids == null || ids.length == 0) return;
+        WidgetRenderModel model = buildRenderModel(context, card, deckName);
+        for (int id : ids) {
+            pushWidget(context, manager, id, model);
+        }
+        if (model.card == null) {
+            android.util.Log.w("CompanionWidget", "renderAll: no card available. deckName=" + model.deckName + " mode=" + model.sourceMode + " randomPoolSize=" + randomPool.size());
+        }
+    }
 
+    private WidgetRenderModel buildRenderModel(Context context, CardInfo card, String deckName) {
         AnkiDroidHelper helper = new AnkiDroidHelper(context);
         StoredState state = helper.getStoredState();
-        String deckName = "";
-        if (state != null && state.deckId > 0 && helper.isPermissionGranted()) {
-            try {
-                String dn = helper.getApi().getDeckName(state.deckId);
-                deckName = dn != null ? dn : "";
-            } catch (Exception ignored) {
-                deckName = "";
+        boolean granted = state != null && helper.isPermissionGranted();
+        if (deckName == null) {
+            deckName = "";
+            if (granted && state.deckId > 0) {
+                try {
+                    String dn = helper.getApi().getDeckName(state.deckId);
+                    deckName = dn != null ? dn : "";
+                } catch (Exception ignored) {
+                    deckName = "";
+                }
             }
         }
-        FieldMode mode = UserPreferences.INSTANCE.getFieldMode(context);
+        FieldMode fieldMode = UserPreferences.INSTANCE.getFieldMode(context);
         CardSourceMode widgetMode = UserPreferences.INSTANCE.getCardSourceMode(context);
 
+        if (card == null && granted && state.cardOrd != -1) {
+            if (widgetMode == CardSourceMode.REVIEW) {
+                card = helper.queryCurrentScheduledCard(state.deckId, CardSourceMode.REVIEW);
+            } else {
+                card = currentRandomCard(context, helper, state.deckId, widgetMode, false);
+            }
+        }
+        if (card == null) {
+            return new WidgetRenderModel(null, deckName, fieldMode, widgetMode, null, null, null);
+        }
+
+        CharSequence front = SanitizedTextCache.INSTANCE.widgetText(card, SanitizedTextCache.Field.QUESTION);
+        CharSequence back = SanitizedTextCache.INSTANCE.widgetText(card, SanitizedTextCache.Field.ANSWER);
+        android.util.Log.d("CompanionWidget",
+                "render card deckId=" + (state != null ? state.deckId : -1)
+                        + " note=" + card.noteID + " ord=" + card.cardOrd + " model=" + card.modelId
+                        + " mode=" + widgetMode
+                        + " front=\"" + WidgetText.truncate(front, 160) + "\" back=\"" + WidgetText.truncate(back, 160) + "\""
+                        + " textCache[" + SanitizedTextCache.INSTANCE.stats() + "]");
+        String modeLabel = null;
+        if (widgetMode == CardSourceMode.REVIEW) {
+            modeLabel = context.getString(R.string.widget_roam_label_review);
+        } else if (widgetMode == CardSourceMode.RANDOM_QUEUE) {
+            if (randomPool.roamActive && randomPool.lastQueueSize >= 0) {
+                modeLabel = context.getString(R.string.widget_roam_label_fallback, randomPool.lastQueueSize);
+            } else {
+                modeLabel = context.getString(R.string.widget_roam_label_random_queue);
+            }
+        } else if (widgetMode == CardSourceMode.RANDOM_ROAM) {
+            modeLabel = context.getString(R.string.widget_roam_label_random_roam);
+        }
+        return new WidgetRenderModel(card, deckName, fieldMode, widgetMode, front, back, modeLabel);
+    }
+
+    /**
+     * Push the model to one widget instance, skipping what the launcher already has.
+     */
+    private void pushWidget(Context context, AppWidgetManager manager, int appWidgetId, WidgetRenderModel model) {
+        boolean shortLabels = useShortLabels(manager, appWidgetId);
+        RenderedWidget last = renderedWidgets.get(appWidgetId);
+        if (last != null && last.contentKey.equals(model.contentKey)) {
+            if (last.shortLabels == shortLabels) {
+                return;
+            }
+            // Same card, resized across the narrow threshold: only the button labels change.
+            RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_companion);
+            applyButtons(context, views, model, shortLabels);
+            manager.partiallyUpdateAppWidget(appWidgetId, views);
+        } else {
+            manager.updateAppWidget(appWidgetId, buildViews(context, model, shortLabels));
+        }
+        renderedWidgets.put(appWidgetId, new RenderedWidget(model.contentKey, shortLabels));
+    }
+
+    private static boolean useShortLabels(AppWidgetManager manager, int appWidgetId) {
         // Choose short labels on narrow widgets to avoid inflating button height
-        boolean useShortLabels = false;
         try {
             Bundle opts = manager.getAppWidgetOptions(appWidgetId);
             int minWidth = opts != null ? opts.getInt(AppWidgetManager.OPTION_APPWIDGET_MIN_WIDTH, 0) : 0;
             // Only shorten labels on very narrow widths to avoid misclassifying wider layouts
-            useShortLabels = minWidth > 0 && minWidth < 120; // treat <120dp as narrow
+            return minWidth > 0 && minWidth < 120; // treat <120dp as narrow
         } catch (Exception ignored) {
+            return false;
         }
-        if (useShortLabels) {
-            views.setTextViewText(R.id.widgetButtonAgain, "Aga");
-            views.setTextViewText(R.id.widgetButtonHard, "Har");
-            views.setTextViewText(R.id.widgetButtonGood, "Goo");
-            views.setTextViewText(R.id.widgetButtonEasy, "Eas");
-        } else {
-            views.setTextViewText(R.id.widgetButtonAgain, context.getString(R.string.again));
-            views.setTextViewText(R.id.widgetButtonHard, context.getString(R.string.hard));
-            views.setTextViewText(R.id.widgetButtonGood, context.getString(R.string.good));
-            views.setTextViewText(R.id.widgetButtonEasy, context.getString(R.string.easy));
-        }
-        // Force single-line buttons on narrow widgets to prevent wrapping/stacking
-        views.setInt(R.id.widgetButtonAgain, "setMaxLines", 1);
-        views.setInt(R.id.widgetButtonHard, "setMaxLines", 1);
-        views.setInt(R.id.widgetButtonGood, "setMaxLines", 1);
-        views.setInt(R.id.widgetButtonEasy, "setMaxLines", 1);
-        views.setBoolean(R.id.widgetButtonAgain, "setSingleLine", true);
-        views.setBoolean(R.id.widgetButtonHard, "setSingleLine", true);
-        views.setBoolean(R.id.widgetButtonGood, "setSingleLine", true);
-        views.setBoolean(R.id.widgetButtonEasy, "setSingleLine", true);
+    }
 
-        if (card == null && state != null && state.cardOrd != -1 && helper.isPermissionGranted()) {
-            if (widgetMode == CardSourceMode.REVIEW) {
-                card = helper.queryCurrentScheduledCard(state.deckId, CardSourceMode.REVIEW);
-            } else {
-                buildRandomCache(context, helper, state.deckId, widgetMode);
-                if (randomIndex >= 0 && randomIndex < randomQueue.size()) {
-                    card = randomQueue.get(randomIndex);
-                }
-            }
-        }
+    private RemoteViews buildViews(Context context, WidgetRenderModel model, boolean shortLabels) {
+        RemoteViews views = new RemoteViews(context.getPackageName(), R.layout.widget_companion);
+        applyButtons(context, views, model, shortLabels);
 
-        if (card != null) {
-            CharSequence front = NotificationsKt.sanitizeForWidget(card.rawQuestion, card.simpleQuestion);
-            CharSequence back = NotificationsKt.sanitizeForWidget(card.rawAnswer, card.simpleAnswer);
-            android.util.Log.d("CompanionWidget",
-                    "render card deckId=" + (state != null ? state.deckId : -1)
-                            + " note=" + card.noteID + " ord=" + card.cardOrd + " model=" + card.modelId
-                            + " mode=" + widgetMode
-                            + " front=\"" + truncate(front, 160) + "\" back=\"" + truncate(back, 160) + "\"");
-            views.setTextViewText(R.id.widgetTitle, deckName.isEmpty() ? context.getString(R.string.app_name) : deckName);
-            int estimatedLines = estimateLines(front) + estimateLines(back);
+        if (model.card != null) {
+            CharSequence front = model.front;
+            CharSequence back = model.back;
+            views.setTextViewText(R.id.widgetTitle, model.deckName.isEmpty() ? context.getString(R.string.app_name) : model.deckName);
+            int estimatedLines = WidgetText.estimateLines(front) + WidgetText.estimateLines(back);
             boolean showButtons = estimatedLines >= 3;
-            if (mode == FieldMode.QUESTION_ONLY) {
+            if (model.fieldMode == FieldMode.QUESTION_ONLY) {
                 views.setViewVisibility(R.id.widgetFront, android.view.View.VISIBLE);
                 int maxLines = showButtons ? 30 : 200;
                 views.setInt(R.id.widgetFront, "setMaxLines", maxLines);
                 views.setTextViewText(R.id.widgetFront, front);
                 views.setViewVisibility(R.id.widgetBack, android.view.View.GONE);
-            } else if (mode == FieldMode.ANSWER_ONLY) {
+            } else if (model.fieldMode == FieldMode.ANSWER_ONLY) {
                 views.setViewVisibility(R.id.widgetFront, android.view.View.GONE);
                 views.setViewVisibility(R.id.widgetBack, android.view.View.VISIBLE);
                 int maxLines = showButtons ? 30 : 200;
@@ -194,8 +369,8 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
                 views.setViewVisibility(R.id.widgetFront, android.view.View.VISIBLE);
                 views.setViewVisibility(R.id.widgetBack, android.view.View.VISIBLE);
                 int allowedTotal = showButtons ? 40 : 200;
-                int frontEst = Math.max(1, estimateLines(front));
-                int backEst = Math.max(1, estimateLines(back));
+                int frontEst = Math.max(1, WidgetText.estimateLines(front));
+                int backEst = Math.max(1, WidgetText.estimateLines(back));
                 int totalEst = frontEst + backEst;
                 int frontLines = Math.max(2, Math.min(allowedTotal - 2, allowedTotal * frontEst / totalEst));
                 int backLines = Math.max(2, allowedTotal - frontLines);
@@ -205,40 +380,10 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
                 views.setTextViewText(R.id.widgetBack, back);
             }
             views.setViewVisibility(R.id.widgetButtons, showButtons ? android.view.View.VISIBLE : android.view.View.GONE);
-            boolean showModeLabel = true;
-            if (widgetMode == CardSourceMode.REVIEW) {
-                views.setTextViewText(R.id.widgetRoamLabel, context.getString(R.string.widget_roam_label_review));
-                randomRoamActive = false;
-            } else if (widgetMode == CardSourceMode.RANDOM_QUEUE) {
-                if (randomRoamActive && lastQueueSize >= 0) {
-                    views.setTextViewText(R.id.widgetRoamLabel, context.getString(R.string.widget_roam_label_fallback, lastQueueSize));
-                } else {
-                    views.setTextViewText(R.id.widgetRoamLabel, context.getString(R.string.widget_roam_label_random_queue));
-                }
-            } else if (widgetMode == CardSourceMode.RANDOM_ROAM) {
-                views.setTextViewText(R.id.widgetRoamLabel, context.getString(R.string.widget_roam_label_random_roam));
-            } else {
-                showModeLabel = false;
-            }
-            views.setViewVisibility(R.id.widgetRoamLabel, showModeLabel ? android.view.View.VISIBLE : android.view.View.GONE);
-            if (widgetMode == CardSourceMode.REVIEW) {
-                views.setViewVisibility(R.id.widgetButtonAgain, android.view.View.VISIBLE);
-                views.setViewVisibility(R.id.widgetButtonHard, android.view.View.VISIBLE);
-                views.setViewVisibility(R.id.widgetButtonGood, android.view.View.VISIBLE);
-                views.setViewVisibility(R.id.widgetButtonEasy, android.view.View.VISIBLE);
-                views.setOnClickPendingIntent(R.id.widgetButtonAgain, getPendingIntent(context, ACTION_EASE_1));
-                views.setOnClickPendingIntent(R.id.widgetButtonHard, getPendingIntent(context, ACTION_EASE_2));
-                views.setOnClickPendingIntent(R.id.widgetButtonGood, getPendingIntent(context, ACTION_EASE_3));
-                views.setOnClickPendingIntent(R.id.widgetButtonEasy, getPendingIntent(context, ACTION_EASE_4));
-            } else {
-                // Only Prev/Next for random mode; hide other buttons to save space.
-                views.setTextViewText(R.id.widgetButtonAgain, "Prev");
-                views.setTextViewText(R.id.widgetButtonHard, "Next");
-                views.setViewVisibility(R.id.widgetButtonGood, android.view.View.GONE);
-                views.setViewVisibility(R.id.widgetButtonEasy, android.view.View.GONE);
-                views.setOnClickPendingIntent(R.id.widgetButtonAgain, getPendingIntent(context, ACTION_RANDOM_PREV));
-                views.setOnClickPendingIntent(R.id.widgetButtonHard, getPendingIntent(context, ACTION_RANDOM_NEXT));
+            if (model.modeLabel != null) {
+                views.setTextViewText(R.id.widgetRoamLabel, model.modeLabel);
             }
+            views.setViewVisibility(R.id.widgetRoamLabel, model.modeLabel != null ? android.view.View.VISIBLE : android.view.View.GONE);
         } else {
             views.setTextViewText(R.id.widgetTitle, context.getString(R.string.app_name));
             views.setTextViewText(R.id.widgetFront, context.getString(R.string.widget_empty_prompt));
@@ -249,11 +394,53 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
 
         views.setOnClickPendingIntent(R.id.widgetRefresh, getPendingIntent(context, ACTION_REFRESH));
         views.setOnClickPendingIntent(R.id.widgetCardArea, getPendingIntent(context, ACTION_OPEN_APP));
+        return views;
+    }
 
-        manager.updateAppWidget(appWidgetId, views);
-
-        if (card == null) {
-            android.util.Log.w("CompanionWidget", "updateWidget: no card available. deckName=" + deckName + " state=" + state + " mode=" + widgetMode + " randomQueueSize=" + randomQueue.size());
+    /**
+     * Button labels, visibility and actions; the only part of the views that differs between instances.
+     */
+    private void applyButtons(Context context, RemoteViews views, WidgetRenderModel model, boolean shortLabels) {
+        if (shortLabels) {
+            views.setTextViewText(R.id.widgetButtonAgain, "Aga");
+            views.setTextViewText(R.id.widgetButtonHard, "Har");
+            views.setTextViewText(R.id.widgetButtonGood, "Goo");
+            views.setTextViewText(R.id.widgetButtonEasy, "Eas");
+        } else {
+            views.setTextViewText(R.id.widgetButtonAgain, context.getString(R.string.again));
+            views.setTextViewText(R.id.widgetButtonHard, context.getString(R.string.hard));
+            views.setTextViewText(R.id.widgetButtonGood, context.getString(R.string.good));
+            views.setTextViewText(R.id.widgetButtonEasy, context.getString(R.string.easy));
+        }
+        // Force single-line buttons on narrow widgets to prevent wrapping/stacking
+        views.setInt(R.id.widgetButtonAgain, "setMaxLines", 1);
+        views.setInt(R.id.widgetButtonHard, "setMaxLines", 1);
+        views.setInt(R.id.widgetButtonGood, "setMaxLines", 1);
+        views.setInt(R.id.widgetButtonEasy, "setMaxLines", 1);
+        views.setBoolean(R.id.widgetButtonAgain, "setSingleLine", true);
+        views.setBoolean(R.id.widgetButtonHard, "setSingleLine", true);
+        views.setBoolean(R.id.widgetButtonGood, "setSingleLine", true);
+        views.setBoolean(R.id.widgetButtonEasy, "setSingleLine", true);
+        if (model.card == null) {
+            return;
+        }
+        if (model.sourceMode == CardSourceMode.REVIEW) {
+            views.setViewVisibility(R.id.widgetButtonAgain, android.view.View.VISIBLE);
+            views.setViewVisibility(R.id.widgetButtonHard, android.view.View.VISIBLE);
+            views.setViewVisibility(R.id.widgetButtonGood, android.view.View.VISIBLE);
+            views.setViewVisibility(R.id.widgetButtonEasy, android.view.View.VISIBLE);
+            views.setOnClickPendingIntent(R.id.widgetButtonAgain, getPendingIntent(context, ACTION_EASE_1));
+            views.setOnClickPendingIntent(R.id.widgetButtonHard, getPendingIntent(context, ACTION_EASE_2));
+            views.setOnClickPendingIntent(R.id.widgetButtonGood, getPendingIntent(context, ACTION_EASE_3));
+            views.setOnClickPendingIntent(R.id.widgetButtonEasy, getPendingIntent(context, ACTION_EASE_4));
+        } else {
+            // Only Prev/Next for random mode; hide other buttons to save space.
+            views.setTextViewText(R.id.widgetButtonAgain, "Prev");
+            views.setTextViewText(R.id.widgetButtonHard, "Next");
+            views.setViewVisibility(R.id.widgetButtonGood, android.view.View.GONE);
+            views.setViewVisibility(R.id.widgetButtonEasy, android.view.View.GONE);
+            views.setOnClickPendingIntent(R.id.widgetButtonAgain, getPendingIntent(context, ACTION_RANDOM_PREV));
+            views.setOnClickPendingIntent(R.id.widgetButtonHard, getPendingIntent(context, ACTION_RANDOM_NEXT));
         }
     }
 
@@ -263,17 +450,6 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
         return PendingIntent.getBroadcast(context, action.hashCode(), intent, PendingIntent.FLAG_IMMUTABLE);
     }
 
-    private int estimateLines(CharSequence text) {
-        if (text == null) return 0;
-        String s = text.toString();
-        int newlines = 0;
-        for (int i = 0; i < s.length(); i++) {
-            if (s.charAt(i) == '\n') newlines++;
-        }
-        int approx = s.length() / 25;
-        return Math.max(newlines + 1, approx + 1);
-    }
-
     private void showToast(Context context, String msg) {
         long now = System.currentTimeMillis();
         if (now - lastToastTimeMs < TOAST_COOLDOWN_MS) {
@@ -293,69 +469,98 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
             return;
         }
         CardSourceMode mode = UserPreferences.INSTANCE.getCardSourceMode(context);
-        buildRandomCache(context, helper, state.deckId, mode);
+        if (randomPool.resetIfKeyChanged(randomPoolKey(context, state.deckId, mode))) {
+            randomPool.restore(WidgetCardCache.getInstance(context).get(state.deckId, mode));
+        }
         switch (action) {
             case ACTION_RANDOM_PREV:
-                if (randomIndex > 0) randomIndex--;
+                randomPool.prev();
                 break;
             case ACTION_RANDOM_NEXT:
-                if (randomIndex < randomQueue.size() - 1) {
-                    randomIndex++;
-                } else {
-                    // If at end, fetch another random and append
-                    CardInfo more = helper.queryCurrentScheduledCard(state.deckId, CardSourceMode.RANDOM_QUEUE);
-                    if (more != null) {
-                        randomQueue.add(more);
-                        randomIndex = randomQueue.size() - 1;
-                    }
-                }
-                break;
             case ACTION_RANDOM_REFRESH:
             case ACTION_REFRESH:
-                buildRandomCache(context, helper, state.deckId, mode);
+                if (!randomPool.hasNext()) {
+                    // Background refill has not caught up; fill synchronously so the tap still moves.
+                    refillRandomPool(context, helper, state.deckId, mode);
+                }
+                randomPool.next();
                 break;
             case ACTION_RANDOM_RESERVED:
                 // Hold: do nothing, just stay on current
                 break;
         }
-        if (randomIndex >= 0 && randomIndex < randomQueue.size()) {
-            CardInfo current = randomQueue.get(randomIndex);
+        CardInfo current = currentRandomCard(context, helper, state.deckId, mode, false);
+        if (current != null) {
             helper.storeState(state.deckId, current);
         }
         refreshAndUpdate(context);
     }
 
-    private String truncate(CharSequence text, int max) {
-        if (text == null) return "";
-        String s = text.toString();
-        if (s.length() <= max) return s;
-        return s.substring(0, max) + "…";
+    private static String randomPoolKey(Context context, long deckId, CardSourceMode mode) {
+        return deckId + ":" + mode + ":" + UserPreferences.INSTANCE.getTemplateFilter(context).hashCode();
+    }
+
+    /**
+     * Current random card for the deck/mode, taking the next pooled card when asked to advance or when
+     * nothing is shown yet. Schedules a background refill when the pool runs low.
+     */
+    private CardInfo currentRandomCard(Context context, AnkiDroidHelper helper, long deckId, CardSourceMode mode, boolean advance) {
+        if (randomPool.resetIfKeyChanged(randomPoolKey(context, deckId, mode))) {
+            // Cold start or deck/mode switch: resume from the cards persisted on the last render.
+            randomPool.restore(WidgetCardCache.getInstance(context).get(deckId, mode));
+        }
+        if (advance || randomPool.current() == null) {
+            if (!randomPool.hasNext()) {
+                refillRandomPool(context, helper, deckId, mode);
+            }
+            randomPool.next();
+        }
+        scheduleRandomRefill(context, deckId, mode);
+        return randomPool.current();
+    }
+
+    private void scheduleRandomRefill(Context context, long deckId, CardSourceMode mode) {
+        if (randomRefillScheduled || randomPool.upcomingSize() >= RANDOM_LOW_WATER) {
+            return;
+        }
+        randomRefillScheduled = true;
+        final String key = randomPoolKey(context, deckId, mode);
+        // Queued behind the current render on the same lane, so the tap is answered first.
+        BackgroundExecutor.execute(WIDGET_LANE, () -> {
+            randomRefillScheduled = false;
+            if (!randomPool.isFor(key)) {
+                // Deck or mode changed meanwhile; the next render fills for the new key.
+                return;
+            }
+            refillRandomPool(context, new AnkiDroidHelper(context), deckId, mode);
+        });
     }
 
-    private void buildRandomCache(Context context, AnkiDroidHelper helper, long deckId, CardSourceMode mode) {
+    private void refillRandomPool(Context context, AnkiDroidHelper helper, long deckId, CardSourceMode mode) {
         int target = UserPreferences.INSTANCE.getRandomCacheSize(context);
         int threshold = UserPreferences.INSTANCE.getRandomQueueThreshold(context);
         int sampleLimit = UserPreferences.INSTANCE.getRandomSampleLimit(context);
-        randomQueue.clear();
-        randomIndex = -1;
-        randomRoamActive = false;
-        lastQueueSize = -1;
+        int missing = target - randomPool.upcomingSize();
+        if (missing <= 0) {
+            return;
+        }
 
         java.util.List<CardInfo> source = new java.util.ArrayList<>();
         if (mode == CardSourceMode.RANDOM_QUEUE) {
             java.util.List<CardInfo> queueCards = helper.fetchQueueCards(deckId, true);
-            lastQueueSize = queueCards.size();
+            randomPool.lastQueueSize = queueCards.size();
             if (queueCards.size() >= threshold) {
                 source = queueCards;
+                randomPool.roamActive = false;
             } else {
                 // Fallback to deck-random to keep the widget populated.
                 source = helper.fetchRandomDeckCards(deckId, target, sampleLimit);
-                randomRoamActive = true;
+                randomPool.roamActive = true;
             }
         } else if (mode == CardSourceMode.RANDOM_ROAM) {
             source = helper.fetchRandomDeckCardsNoReview(deckId, target, sampleLimit);
-            randomRoamActive = true;
-            lastQueueSize = -1;
+            randomPool.roamActive = true;
+            randomPool.lastQueueSize = -1;
         }
         // Fallback: if random source is empty (e.g., card provider unsupported), try a queue card to avoid blank widget.
         if (source == null || source.isEmpty()) {
@@ -363,23 +568,31 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
             if (fallback != null) {
                 source = new java.util.ArrayList<>();
                 source.add(fallback);
-                randomRoamActive = false;
+                randomPool.roamActive = false;
             }
         }
         if (source != null) {
-            if (source.size() > target) {
+            if (source.size() > missing) {
                 java.util.Collections.shuffle(source);
-                source = source.subList(0, target);
+                source = source.subList(0, missing);
             }
-            randomQueue.addAll(source);
+            randomPool.addUpcoming(source);
         }
-        if (!randomQueue.isEmpty()) {
-            randomIndex = 0;
-        }
-        android.util.Log.d("CompanionWidget", "buildRandomCache: mode=" + mode + " deckId=" + deckId + " sourceSize=" + (source == null ? -1 : source.size()) + " queueSize=" + randomQueue.size() + " threshold=" + threshold + " randomRoamActive=" + randomRoamActive);
+        android.util.Log.d("CompanionWidget", "refillRandomPool: mode=" + mode + " deckId=" + deckId + " sourceSize=" + (source == null ? -1 : source.size()) + " upcoming=" + randomPool.upcomingSize() + " threshold=" + threshold + " randomRoamActive=" + randomPool.roamActive);
     }
 
     private void respondCard(Context context, int ease) {
+        long start = ProviderMetrics.start();
+        boolean ok = false;
+        try {
+            answerCard(context, ease);
+            ok = true;
+        } finally {
+            ProviderMetrics.finish(ProviderMetrics.REVIEW_SUBMIT, start, ok);
+        }
+    }
+
+    private void answerCard(Context context, int ease) {
         AnkiDroidHelper helper = new AnkiDroidHelper(context);
         StoredState state = helper.getStoredState();
         if (state == null || state.cardOrd == -1) {
@@ -393,8 +606,18 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
             handleRandomAction(context, ACTION_RANDOM_REFRESH);
             return;
         }
+        ReviewJournal journal = ReviewJournal.getInstance(context);
+        if (journal.isPending(state.noteID, state.cardOrd)) {
+            // The card was answered and the answer is on its way to AnkiDroid; a second one would answer twice.
+            android.util.Log.w("CompanionWidget", "Answer for noteId=" + state.noteID + " ord=" + state.cardOrd + " still pending; ignoring tap.");
+            showToast(context, "Answer still being saved…");
+            return;
+        }
+        // While earlier answers are still being submitted the queue lags behind the shown card; the journal
+        // reconciles stale answers itself, so skip the top-of-queue checks.
+        boolean journalBehind = journal.hasPending(state.deckId);
         // If a retry was requested, only proceed when state matches pending and top matches too.
-        if (pendingRetry) {
+        if (pendingRetry && !journalBehind) {
             CardInfo topRetry = helper.getTopCardForDeck(state.deckId);
             if (topRetry == null || topRetry.noteID != pendingNoteId || topRetry.cardOrd != pendingOrd) {
                 android.util.Log.w("CompanionWidget", "Pending retry but top/state mismatch; refreshing and asking again.");
@@ -409,7 +632,7 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
             }
         }
         // Sync with the top of the queue to avoid "not at top of queue" errors.
-        CardInfo top = helper.getTopCardForDeck(state.deckId);
+        CardInfo top = journalBehind ? null : helper.getTopCardForDeck(state.deckId);
         if (top != null && (top.noteID != state.noteID || top.cardOrd != state.cardOrd)) {
             android.util.Log.w("CompanionWidget", "Top card mismatch, updating state. top noteId=" + top.noteID + " ord=" + top.cardOrd + " stored noteId=" + state.noteID + " ord=" + state.cardOrd);
             helper.storeState(state.deckId, top);
@@ -421,10 +644,10 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
             return;
         }
 
-        boolean ok = helper.reviewCard(state.noteID, state.cardOrd, state.cardStartTime, ease);
+        boolean ok = helper.reviewCard(state.deckId, state.noteID, state.cardOrd, state.cardStartTime, ease);
         if (!ok) {
-            // On failure (card changed), show a lightweight toast and refresh widget after a short delay.
-            android.util.Log.w("CompanionWidget", "Review failed for noteId=" + state.noteID + " ord=" + state.cardOrd + ", will refresh.");
+            // On failure (answer not recorded), show a lightweight toast and refresh widget after a short delay.
+            android.util.Log.w("CompanionWidget", "Review not recorded for noteId=" + state.noteID + " ord=" + state.cardOrd + ", will refresh.");
             showToast(context, "Card changed, refreshing…");
             pendingRetry = false;
             CardInfo fallback = helper.queryCurrentScheduledCard(state.deckId);
@@ -439,33 +662,78 @@ public class CompanionWidgetProvider extends AppWidgetProvider {
             }
             // Immediate refresh plus delayed refresh as a safeguard.
             refreshAndUpdate(context);
-            handler.postDelayed(() -> refreshAndUpdate(context), 2000);
+            BackgroundExecutor.executeDelayed(WIDGET_LANE, () -> refreshAndUpdate(context), 2000);
             return;
         }
-        // After a successful review, fetch next card. If AnkiDroid hasn't advanced yet, retry shortly.
+        // After a successful review, show the prefetched next card right away and confirm it once the
+        // queue has moved on; if AnkiDroid hasn't advanced by the deadline, ask for another tap.
         pendingRetry = false;
-        CardInfo next = helper.queryCurrentScheduledCard(state.deckId);
-        if (next != null && (next.noteID != state.noteID || next.cardOrd != state.cardOrd)) {
-            android.util.Log.i("CompanionWidget", "Next card immediately available noteId=" + next.noteID + " ord=" + next.cardOrd);
-            helper.storeState(state.deckId, next);
-            refreshAndUpdate(context);
+        CardInfo predicted = NextCardPrefetcher.getInstance(context).take(state.deckId, state.noteID, state.cardOrd);
+        if (predicted != null && helper.advanceState(state, predicted)) {
+            android.util.Log.i("CompanionWidget", "Showing prefetched card noteId=" + predicted.noteID + " ord=" + predicted.cardOrd);
+            showCard(context, state.deckId, predicted);
         } else {
-            android.util.Log.i("CompanionWidget", "Next card same or null immediately; retrying after delay. current noteId=" + state.noteID + " ord=" + state.cardOrd);
-            handler.postDelayed(() -> {
-                CardInfo later = helper.queryCurrentScheduledCard(state.deckId);
-                if (later != null && (later.noteID != state.noteID || later.cardOrd != state.cardOrd)) {
-                    android.util.Log.i("CompanionWidget", "Next card after delay noteId=" + later.noteID + " ord=" + later.cardOrd);
-                    helper.storeState(state.deckId, later);
-                    refreshAndUpdate(context);
-                } else {
-                    android.util.Log.w("CompanionWidget", "Still same card after delay; asking user to tap again.");
-                    pendingRetry = true;
-                    pendingNoteId = state.noteID;
-                    pendingOrd = state.cardOrd;
-                    showToast(context, "Card unchanged, tap again");
-                    refreshAndUpdate(context);
-                }
-            }, 300);
+            predicted = null;
         }
+        final CardInfo shown = predicted;
+        QueueAdvanceWatcher.watch(context, WIDGET_LANE, state.deckId, state.noteID, state.cardOrd, new QueueAdvanceWatcher.Callback() {
+            @Override
+            public void onAdvanced(CardInfo top) {
+                if (shown != null && top != null && top.noteID == shown.noteID && top.cardOrd == shown.cardOrd) {
+                    // The guess was right; only the card after it is still needed.
+                    schedulePrefetch(context, state.deckId, shown);
+                    return;
+                }
+                android.util.Log.i("CompanionWidget", "Queue advanced to noteId=" + (top != null ? top.noteID : -1) + " ord=" + (top != null ? top.cardOrd : -1));
+                CardInfo replacement = top;
+                if (replacement == null) {
+                    replacement = new CardInfo();
+                    replacement.cardOrd = -1;
+                    replacement.noteID = -1;
+                }
+                StoredState from = shown != null ? new StoredState(state.deckId, shown.noteID, shown.cardOrd, shown.cardStartTime) : state;
+                if (!helper.advanceState(from, replacement)) {
+                    android.util.Log.w("CompanionWidget", "State moved on during review; keeping the newer card.");
+                }
+                refreshAndUpdate(context);
+            }
+
+            @Override
+            public void onTimeout(CardInfo top) {
+                if (ReviewJournal.getInstance(context).hasPending(state.deckId)) {
+                    // Later answers are still queued for AnkiDroid, so the queue lags behind; let the journal
+                    // and the change monitor settle it rather than asking for another tap.
+                    android.util.Log.i("CompanionWidget", "Answers for deck " + state.deckId + " still pending; not asking to tap again.");
+                    return;
+                }
+                android.util.Log.w("CompanionWidget", "Queue did not advance; asking user to tap again. current noteId=" + state.noteID + " ord=" + state.cardOrd);
+                if (shown != null) {
+                    // Take back the prefetched card; the answered one is still on top.
+                    helper.advanceState(new StoredState(state.deckId, shown.noteID, shown.cardOrd, shown.cardStartTime), top);
+                }
+                pendingRetry = true;
+                pendingNoteId = state.noteID;
+                pendingOrd = state.cardOrd;
+                showToast(context, "Card unchanged, tap again");
+                refreshAndUpdate(context);
+            }
+        });
+    }
+
+    /**
+     * Render the given review card on every widget instance without querying the queue.
+     */
+    private void showCard(Context context, long deckId, CardInfo card) {
+        AppWidgetManager manager = AppWidgetManager.getInstance(context);
+        int[] ids = manager.getAppWidgetIds(new ComponentName(context, CompanionWidgetProvider.class));
+        renderAll(context, manager, ids, card, null);
+        WidgetCardCache.getInstance(context).put(deckId, CardSourceMode.REVIEW, java.util.Collections.singletonList(card));
+    }
+
+    /**
+     * Prefetch the card expected after {@code shown}, queued behind the current work on the widget lane.
+     */
+    private static void schedulePrefetch(Context context, long deckId, CardInfo shown) {
+        BackgroundExecutor.execute(WIDGET_LANE, () -> NextCardPrefetcher.getInstance(context).prefetch(deckId, shown));
     }
 }
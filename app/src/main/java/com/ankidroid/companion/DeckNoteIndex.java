@@ -0,0 +1,238 @@
+package com.ankidroid.companion;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.ichi2.anki.FlashCardsContract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Persistent snapshot of the note ids in a deck, as a sorted long[] per deck, so random modes can pick notes
+ * by array index instead of scanning the deck's cards on every refresh.
+ *
+ * The provider exposes no per-deck card count or modification time, so a snapshot is rebuilt when it is older
+ * than {@link #TTL_MS}, when AnkiDroid reports a note change, or when a sampled note turns out to be gone.
+ */
+final class DeckNoteIndex {
+    private static final String TAG = "DeckNoteIndex";
+    private static final String FILE_NAME = "deck_note_index.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_DECKS = 8;
+    private static final long TTL_MS = 60 * 60 * 1000L;
+
+    private static final class Snapshot {
+        final long[] noteIds;
+        final long builtAt;
+
+        Snapshot(long[] noteIds, long builtAt) {
+            this.noteIds = noteIds;
+            this.builtAt = builtAt;
+        }
+    }
+
+    private static DeckNoteIndex sInstance;
+
+    private final AtomicFile file;
+    private final LinkedHashMap<Long, Snapshot> decks = new LinkedHashMap<Long, Snapshot>(8, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Snapshot> eldest) {
+            return size() > MAX_DECKS;
+        }
+    };
+    private boolean loaded = false;
+
+    private DeckNoteIndex(Context context) {
+        Context appContext = context.getApplicationContext();
+        this.file = new AtomicFile(new File(appContext.getFilesDir(), FILE_NAME));
+        try {
+            appContext.getContentResolver().registerContentObserver(
+                    FlashCardsContract.Note.CONTENT_URI,
+                    true,
+                    new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            invalidateAll();
+                        }
+                    });
+        } catch (SecurityException e) {
+            // AnkiDroid missing or not yet granted; the TTL still bounds staleness.
+            Log.w(TAG, "Note observer not registered: " + e.getMessage());
+        }
+    }
+
+    static synchronized DeckNoteIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new DeckNoteIndex(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Forget the instance so the next {@link #getInstance} starts from a fresh context; for tests.
+     */
+    static synchronized void resetInstance() {
+        sInstance = null;
+    }
+
+    /**
+     * @return the sorted note ids of the deck, or null if there is no fresh snapshot
+     */
+    synchronized long[] get(long deckId) {
+        ensureLoaded();
+        Snapshot snapshot = decks.get(deckId);
+        if (snapshot == null) {
+            return null;
+        }
+        long age = System.currentTimeMillis() - snapshot.builtAt;
+        if (age < 0 || age > TTL_MS) {
+            decks.remove(deckId);
+            return null;
+        }
+        return snapshot.noteIds;
+    }
+
+    /**
+     * Replace the snapshot of the deck; {@code sortedNoteIds} must be sorted and free of duplicates.
+     */
+    synchronized void put(long deckId, long[] sortedNoteIds) {
+        ensureLoaded();
+        decks.put(deckId, new Snapshot(sortedNoteIds, System.currentTimeMillis()));
+        save();
+    }
+
+    synchronized void invalidate(long deckId) {
+        ensureLoaded();
+        if (decks.remove(deckId) != null) {
+            save();
+        }
+    }
+
+    synchronized void invalidateAll() {
+        ensureLoaded();
+        if (!decks.isEmpty()) {
+            decks.clear();
+            save();
+        }
+    }
+
+    /**
+     * Uniform sample of up to {@code count} distinct ids in random order (Floyd's algorithm, O(count)).
+     */
+    static List<Long> sample(long[] noteIds, int count, Random random) {
+        int n = noteIds.length;
+        int k = Math.min(count, n);
+        List<Long> result = new ArrayList<>(k);
+        LongHashSet picked = new LongHashSet(k);
+        for (int j = n - k; j < n; j++) {
+            int index = random.nextInt(j + 1);
+            if (!picked.add(index)) {
+                index = j;
+                picked.add(index);
+            }
+            // Insert at a random position so the order is a uniform shuffle too.
+            result.add(random.nextInt(result.size() + 1), noteIds[index]);
+        }
+        return result;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int deckCount = in.readInt();
+            for (int d = 0; d < deckCount; d++) {
+                long deckId = in.readLong();
+                long builtAt = in.readLong();
+                int size = in.readInt();
+                long[] noteIds = new long[size];
+                long previous = 0;
+                for (int i = 0; i < size; i++) {
+                    previous += readVarLong(in);
+                    noteIds[i] = previous;
+                }
+                decks.put(deckId, new Snapshot(noteIds, builtAt));
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing indexed yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable index: " + e.getMessage());
+            decks.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void save() {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(FORMAT_VERSION);
+            data.writeInt(decks.size());
+            for (Map.Entry<Long, Snapshot> entry : decks.entrySet()) {
+                long[] noteIds = entry.getValue().noteIds;
+                data.writeLong(entry.getKey());
+                data.writeLong(entry.getValue().builtAt);
+                data.writeInt(noteIds.length);
+                // Sorted ids are creation timestamps; the gaps fit in two or three bytes each.
+                long previous = 0;
+                for (long noteId : noteIds) {
+                    writeVarLong(data, noteId - previous);
+                    previous = noteId;
+                }
+            }
+            data.flush();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to persist index: " + e.getMessage());
+            if (out != null) file.failWrite(out);
+        }
+    }
+
+    private static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            byte b = in.readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
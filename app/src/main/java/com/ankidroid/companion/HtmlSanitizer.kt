@@ -0,0 +1,387 @@
+package com.ankidroid.companion
+
+/**
+ * Single-pass HTML-to-text conversion for card content shown in the widget and the notification.
+ *
+ * The source is scanned once: tags, entities, cloze markers, sound tags and bare URLs are recognised by
+ * hand instead of through chained Regex replacements, and line structure (blocks, lists, quotes, section
+ * prefixes) is decided while writing the output. Nothing here allocates a Regex.
+ */
+object HtmlSanitizer {
+    private const val SOUND_ICON = "🔊"
+    private const val NBSP = '\u00A0'
+    private const val PREFIX_CHARS = "❯➤→▪✎•"
+
+    // Sections recognised by class/id/aria-label; the first keyword in this order wins.
+    private val PREFIX_RULES = arrayOf(
+        "def" to '❯',
+        "definition" to '❯',
+        "mean" to '❯',
+        "sentence" to '➤',
+        "quote" to '❯',
+        "tran" to '→',
+        "translation" to '→',
+        "tr" to '→',
+        "ex-tr" to '→',
+        "ex" to '▪',
+        "example" to '▪',
+        "note" to '✎',
+        "memo" to '✎',
+        "zh" to '•',
+        "cn" to '•',
+        "chinese" to '•'
+    )
+    private val PREFIX_ATTRIBUTES = arrayOf("class", "id", "aria-label")
+
+    private val BLOCK_TAGS = hashSetOf(
+        "p", "div", "br", "hr", "h1", "h2", "h3", "h4", "h5", "h6", "ul", "ol", "dl", "dt", "dd",
+        "table", "tr", "pre", "section", "article", "header", "footer", "center"
+    )
+    // Tags whose content is never shown.
+    private val HIDDEN_TAGS = hashSetOf("style", "script", "head", "title")
+    // Tags that keep their section prefix logic to themselves (li/blockquote add their own marker).
+    private val NO_PREFIX_TAGS = hashSetOf("li", "blockquote", "ul", "ol", "audio")
+
+    /**
+     * Widget text: sound/audio become a speaker icon, lists and quotes get markers, known sections get a
+     * prefix on their own line, links and images are dropped.
+     */
+    fun widgetText(source: String): String = Converter(source, true).run()
+
+    /**
+     * Notification text: like [widgetText] but without icons or section prefixes.
+     */
+    fun notificationText(source: String): String = Converter(source, false).run()
+
+    private fun isWhitespace(c: Char): Boolean =
+        c == ' ' || c == '\n' || c == '\t' || c == '\r' || c == '\u000C' || c == '\u000B'
+
+    private class Converter(private val src: String, private val widget: Boolean) {
+        private val out = StringBuilder(src.length / 2 + 16)
+        private var lineStart = 0
+        private var pendingSpace = false
+        private var literalPrefix = false
+        // Visible cloze text ends at clozeStop; scanning resumes after the closing braces.
+        private var clozeStop = -1
+        private var clozeResume = -1
+
+        fun run(): String {
+            val n = src.length
+            var i = 0
+            while (i < n) {
+                if (clozeStop >= 0 && i >= clozeStop) {
+                    i = maxOf(i, clozeResume)
+                    clozeStop = -1
+                    continue
+                }
+                val c = src[i]
+                i = when {
+                    c == '<' -> tag(i)
+                    c == '&' -> entity(i)
+                    c == '[' && src.startsWith("[sound:", i) -> sound(i)
+                    c == '{' && src.startsWith("{{c", i, ignoreCase = true) -> cloze(i)
+                    c == 'h' && (src.startsWith("http://", i) || src.startsWith("https://", i)) -> url(i)
+                    else -> {
+                        text(c)
+                        i + 1
+                    }
+                }
+            }
+            return finish()
+        }
+
+        private fun text(c: Char) {
+            if (isWhitespace(c)) {
+                space()
+                return
+            }
+            if (c == NBSP && out.length == lineStart) return
+            if (pendingSpace) {
+                out.append(' ')
+                pendingSpace = false
+            }
+            if (PREFIX_CHARS.indexOf(c) >= 0) literalPrefix = true
+            out.append(c)
+        }
+
+        private fun word(s: String) {
+            if (pendingSpace) {
+                out.append(' ')
+                pendingSpace = false
+            }
+            out.append(s)
+        }
+
+        private fun space() {
+            if (out.length > lineStart) pendingSpace = true
+        }
+
+        private fun trimLineEnd() {
+            while (out.length > lineStart) {
+                val last = out[out.length - 1]
+                if (last == ' ' || last == NBSP || last == '\t') out.setLength(out.length - 1) else break
+            }
+        }
+
+        private fun lineIsOnlyPrefix(): Boolean =
+            out.length - lineStart == 1 && PREFIX_CHARS.indexOf(out[lineStart]) >= 0
+
+        private fun breakLine() {
+            pendingSpace = false
+            trimLineEnd()
+            if (out.length == lineStart) return
+            if (lineIsOnlyPrefix()) {
+                // A prefix waits for the content of its section on the same line.
+                pendingSpace = true
+                return
+            }
+            out.append('\n')
+            lineStart = out.length
+        }
+
+        private fun prefix(marker: Char) {
+            if (lineIsOnlyPrefix()) return
+            breakLine()
+            out.append(marker)
+            pendingSpace = true
+        }
+
+        private fun tag(start: Int): Int {
+            val n = src.length
+            if (src.startsWith("<!--", start)) {
+                val end = src.indexOf("-->", start + 4)
+                return if (end < 0) n else end + 3
+            }
+            var j = start + 1
+            val closing = j < n && src[j] == '/'
+            if (closing) j++
+            val nameStart = j
+            while (j < n && src[j].isLetterOrDigit()) j++
+            if (j == nameStart) {
+                text('<')
+                return start + 1
+            }
+            val end = tagEnd(j)
+            if (end < 0) {
+                text('<')
+                return start + 1
+            }
+            val name = src.substring(nameStart, j).lowercase()
+            if (closing) {
+                when (name) {
+                    "blockquote" -> breakLine()
+                    "td", "th" -> space()
+                    else -> if (name in BLOCK_TAGS) breakLine()
+                }
+                return end + 1
+            }
+            if (widget && name !in NO_PREFIX_TAGS) {
+                val marker = prefixMarker(j, end)
+                if (marker != null) prefix(marker)
+            }
+            return when {
+                name in HIDDEN_TAGS -> skipPast(name, end + 1, n)
+                name == "a" -> {
+                    space()
+                    skipPast(name, end + 1, end + 1)
+                }
+                name == "audio" -> {
+                    if (widget) {
+                        word(SOUND_ICON)
+                        pendingSpace = true
+                    }
+                    skipPast(name, end + 1, end + 1)
+                }
+                name == "img" -> {
+                    space()
+                    end + 1
+                }
+                name == "div" && attributeValue(j, end, "class") == "link" -> {
+                    space()
+                    skipPast(name, end + 1, end + 1)
+                }
+                name == "li" -> {
+                    if (widget) prefix('•') else breakLine()
+                    end + 1
+                }
+                name == "blockquote" -> {
+                    if (widget) prefix('❯') else breakLine()
+                    end + 1
+                }
+                name in BLOCK_TAGS -> {
+                    breakLine()
+                    end + 1
+                }
+                else -> end + 1
+            }
+        }
+
+        /** Index of the '>' closing the tag, skipping quoted attribute values; -1 if unterminated. */
+        private fun tagEnd(from: Int): Int {
+            var quote = '\u0000'
+            for (k in from until src.length) {
+                val c = src[k]
+                if (quote != '\u0000') {
+                    if (c == quote) quote = '\u0000'
+                } else if (c == '"' || c == '\'') {
+                    quote = c
+                } else if (c == '>') {
+                    return k
+                }
+            }
+            return -1
+        }
+
+        /** Continue after the first matching close tag, or at [fallback] if there is none. */
+        private fun skipPast(name: String, from: Int, fallback: Int): Int {
+            val close = src.indexOf("</$name", from, ignoreCase = true)
+            if (close < 0) return fallback
+            val end = src.indexOf('>', close)
+            return if (end < 0) src.length else end + 1
+        }
+
+        private fun prefixMarker(attrStart: Int, attrEnd: Int): Char? {
+            var values: Array<String?>? = null
+            for ((index, attr) in PREFIX_ATTRIBUTES.withIndex()) {
+                val value = attributeValue(attrStart, attrEnd, attr) ?: continue
+                if (values == null) values = arrayOfNulls(PREFIX_ATTRIBUTES.size)
+                values[index] = value
+            }
+            if (values == null) return null
+            for ((keyword, marker) in PREFIX_RULES) {
+                for (value in values) {
+                    if (value != null && value.contains(keyword, ignoreCase = true)) return marker
+                }
+            }
+            return null
+        }
+
+        private fun attributeValue(attrStart: Int, attrEnd: Int, attr: String): String? {
+            var k = attrStart
+            while (k < attrEnd) {
+                val found = src.indexOf(attr, k, ignoreCase = true)
+                if (found < 0 || found >= attrEnd) return null
+                k = found + attr.length
+                if (!isWhitespace(src[found - 1])) continue
+                var v = k
+                while (v < attrEnd && isWhitespace(src[v])) v++
+                if (v >= attrEnd || src[v] != '=') continue
+                v++
+                while (v < attrEnd && isWhitespace(src[v])) v++
+                if (v >= attrEnd) return ""
+                val quote = src[v]
+                return if (quote == '"' || quote == '\'') {
+                    val close = src.indexOf(quote, v + 1)
+                    src.substring(v + 1, if (close < 0 || close > attrEnd) attrEnd else close)
+                } else {
+                    var e = v
+                    while (e < attrEnd && !isWhitespace(src[e]) && src[e] != '/') e++
+                    src.substring(v, e)
+                }
+            }
+            return null
+        }
+
+        private fun entity(start: Int): Int {
+            val semi = src.indexOf(';', start + 1)
+            if (semi < 0 || semi - start > 10) {
+                text('&')
+                return start + 1
+            }
+            if (src[start + 1] == '#') {
+                val hex = semi > start + 2 && (src[start + 2] == 'x' || src[start + 2] == 'X')
+                val digits = src.substring(start + if (hex) 3 else 2, semi)
+                val code = digits.toIntOrNull(if (hex) 16 else 10)
+                if (code == null || code < 0 || code > Character.MAX_CODE_POINT) {
+                    text('&')
+                    return start + 1
+                }
+                if (Character.isBmpCodePoint(code)) {
+                    text(code.toChar())
+                } else {
+                    text(Character.highSurrogate(code))
+                    out.append(Character.lowSurrogate(code))
+                }
+                return semi + 1
+            }
+            val decoded = if (semi - start - 1 <= HtmlEntities.MAX_NAME_LENGTH) {
+                HtmlEntities.decode(src.substring(start + 1, semi))
+            } else null
+            if (decoded == null) {
+                text('&')
+                return start + 1
+            }
+            text(decoded)
+            return semi + 1
+        }
+
+        private fun sound(start: Int): Int {
+            val end = src.indexOf(']', start + 7)
+            if (end <= start + 7) {
+                text('[')
+                return start + 1
+            }
+            if (widget) {
+                word(SOUND_ICON)
+                pendingSpace = true
+            } else {
+                space()
+            }
+            return end + 1
+        }
+
+        // {{c1::text::hint}} -> "[C1] text"
+        private fun cloze(start: Int): Int {
+            var j = start + 3
+            while (j < src.length && src[j].isDigit()) j++
+            if (j == start + 3 || !src.startsWith("::", j)) {
+                text('{')
+                return start + 1
+            }
+            val textStart = j + 2
+            val end = src.indexOf("}}", textStart)
+            if (end < 0 || src.indexOf('\n', textStart).let { it in 0 until end }) {
+                text('{')
+                return start + 1
+            }
+            val hint = src.indexOf("::", textStart)
+            word("[C" + src.substring(start + 3, j) + "]")
+            pendingSpace = true
+            clozeStop = if (hint in 0 until end) hint else end
+            clozeResume = end + 2
+            return textStart
+        }
+
+        private fun url(start: Int): Int {
+            var j = start
+            while (j < src.length && !isWhitespace(src[j]) && src[j] != '<') j++
+            space()
+            return j
+        }
+
+        private fun finish(): String {
+            pendingSpace = false
+            trimLineEnd()
+            if (!widget || !literalPrefix) return out.toString().trim()
+            // Prefix symbols that came from the card text itself also start their own line.
+            val result = StringBuilder(out.length + 8)
+            var k = 0
+            while (k < out.length) {
+                val c = out[k]
+                if (PREFIX_CHARS.indexOf(c) >= 0 && k + 1 < out.length && isWhitespace(out[k + 1])) {
+                    var r = result.length
+                    while (r > 0 && isWhitespace(result[r - 1])) r--
+                    if (r > 0) {
+                        result.setLength(r)
+                        result.append('\n').append(c).append(' ')
+                        k += 2
+                        continue
+                    }
+                }
+                result.append(c)
+                k++
+            }
+            return result.toString().trim()
+        }
+    }
+}
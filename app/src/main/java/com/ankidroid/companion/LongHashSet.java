@@ -0,0 +1,103 @@
+package com.ankidroid.companion;
+
+/**
+ * Open-addressing set of primitive longs, for deduplicating note ids without boxing. Not thread-safe.
+ */
+final class LongHashSet {
+    private static final long EMPTY = 0L;
+
+    private long[] keys;
+    private int size;
+    // 0 is the empty-slot marker, so it is tracked on the side.
+    private boolean hasZero;
+
+    LongHashSet() {
+        this(16);
+    }
+
+    LongHashSet(int expectedSize) {
+        int capacity = 16;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+    }
+
+    /**
+     * @return true if the value was not already present
+     */
+    boolean add(long value) {
+        if (value == EMPTY) {
+            if (hasZero) return false;
+            hasZero = true;
+            size++;
+            return true;
+        }
+        int mask = keys.length - 1;
+        int slot = mix(value) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == value) return false;
+            slot = (slot + 1) & mask;
+        }
+        keys[slot] = value;
+        size++;
+        // Keep the load factor at or below 1/2 so probe chains stay short.
+        if (size * 2 > keys.length) {
+            grow();
+        }
+        return true;
+    }
+
+    boolean contains(long value) {
+        if (value == EMPTY) return hasZero;
+        int mask = keys.length - 1;
+        int slot = mix(value) & mask;
+        while (keys[slot] != EMPTY) {
+            if (keys[slot] == value) return true;
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * @return the values in ascending order
+     */
+    long[] toSortedArray() {
+        long[] values = new long[size];
+        int i = 0;
+        if (hasZero) values[i++] = EMPTY;
+        for (long key : keys) {
+            if (key != EMPTY) values[i++] = key;
+        }
+        java.util.Arrays.sort(values);
+        return values;
+    }
+
+    private void grow() {
+        long[] old = keys;
+        keys = new long[old.length * 2];
+        int mask = keys.length - 1;
+        for (long value : old) {
+            if (value == EMPTY) continue;
+            int slot = mix(value) & mask;
+            while (keys[slot] != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            keys[slot] = value;
+        }
+    }
+
+    // Note ids are millisecond timestamps; spread the low bits before masking.
+    private static int mix(long value) {
+        long h = value * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
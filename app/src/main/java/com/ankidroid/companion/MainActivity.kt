@@ -1,6 +1,7 @@
 package com.ankidroid.companion
 
 import android.app.Activity
+import android.app.AlertDialog
 import android.app.NotificationChannel
 import android.app.NotificationManager
 import android.content.Context
@@ -17,6 +18,7 @@ import android.widget.Button
 import android.widget.CheckBox
 import android.widget.EditText
 import android.widget.LinearLayout
+import android.widget.ScrollView
 import android.widget.Spinner
 import android.widget.TextView
 import android.widget.Toast
@@ -28,6 +30,11 @@ import androidx.work.ExistingPeriodicWorkPolicy
 import androidx.work.PeriodicWorkRequest
 import androidx.work.WorkManager
 import com.ichi2.anki.api.AddContentApi
+import java.io.File
+import java.io.IOException
+import java.text.SimpleDateFormat
+import java.util.Date
+import java.util.Locale
 import java.util.concurrent.TimeUnit
 
 
@@ -39,6 +46,9 @@ class MainActivity : ComponentActivity() {
         super.onCreate(savedInstanceState)
         setContentView(R.layout.main_layout)
         createNotificationChannel()
+        // Every launch, not only interval changes, so the refresh work always exists with the configured
+        // interval.
+        scheduleWidgetRefresh()
         setup()
     }
 
@@ -106,7 +116,6 @@ class MainActivity : ComponentActivity() {
         setNotificationsToggle()
         setWidgetIntervalInput()
         setAnswerLinesInput()
-        scheduleWidgetRefresh()
         // Show current app version from package info
         val versionName = try {
             val pkgInfo = packageManager.getPackageInfo(packageName, 0)
@@ -114,7 +123,14 @@ class MainActivity : ComponentActivity() {
         } catch (_: Exception) {
             ""
         }
-        findViewById<TextView>(R.id.versionLabel)?.text = getString(R.string.version_label, versionName)
+        findViewById<TextView>(R.id.versionLabel)?.apply {
+            text = getString(R.string.version_label, versionName)
+            // Hidden diagnostics: long-press the version label.
+            setOnLongClickListener {
+                showDiagnostics()
+                true
+            }
+        }
 
         val button = findViewById<Button>(R.id.mainRefreshButton)
         button.visibility = View.VISIBLE
@@ -123,6 +139,42 @@ class MainActivity : ComponentActivity() {
         }
     }
 
+    private fun showDiagnostics() {
+        val report = ProviderMetrics.report() + "\nSanitized text cache: " + SanitizedTextCache.stats() + "\n" +
+            "Widget refreshes: " + RefreshCoordinator.stats() + "\n"
+        val padding = TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 16f, resources.displayMetrics).toInt()
+        val reportView = TextView(this).apply {
+            text = report
+            typeface = Typeface.MONOSPACE
+            setTextSize(TypedValue.COMPLEX_UNIT_SP, 11f)
+            setTextIsSelectable(true)
+            setPadding(padding, padding, padding, padding)
+        }
+        AlertDialog.Builder(this)
+            .setTitle(R.string.diagnostics_title)
+            .setView(ScrollView(this).apply { addView(reportView) })
+            .setPositiveButton(R.string.diagnostics_export) { _, _ -> exportDiagnostics(report) }
+            .setNeutralButton(R.string.diagnostics_reset) { _, _ ->
+                ProviderMetrics.reset()
+                RefreshCoordinator.reset()
+            }
+            .setNegativeButton(android.R.string.cancel, null)
+            .show()
+    }
+
+    private fun exportDiagnostics(report: String) {
+        val dir = getExternalFilesDir(null) ?: filesDir
+        val stamp = SimpleDateFormat("yyyyMMdd-HHmmss", Locale.US).format(Date())
+        val file = File(dir, "diagnostics-$stamp.txt")
+        try {
+            file.writeText(report)
+            Toast.makeText(this, getString(R.string.diagnostics_exported, file.absolutePath), Toast.LENGTH_LONG).show()
+        } catch (e: IOException) {
+            Log.w("MainActivity", "Diagnostics export failed", e)
+            Toast.makeText(this, R.string.diagnostics_export_failed, Toast.LENGTH_SHORT).show()
+        }
+    }
+
     private fun explainError(errorText:String) {
         val text = findViewById<TextView>(R.id.mainTextView)
         text.text = errorText
@@ -506,14 +558,17 @@ class MainActivity : ComponentActivity() {
     }
 
     private fun scheduleWidgetRefresh() {
+        // REVIEW mode also follows AnkiDroid through WidgetChangeMonitor, but its observers only live as long
+        // as the process, so the configured interval stays the backstop there; random modes use it to rotate.
         val minutes = UserPreferences.getWidgetIntervalMinutes(this).toLong()
         val request = PeriodicWorkRequest.Builder(
             WidgetRefreshWorker::class.java,
             minutes, TimeUnit.MINUTES
         ).build()
+        // UPDATE swaps in the new interval but keeps the schedule, so relaunching does not postpone the next run.
         WorkManager.getInstance(this).enqueueUniquePeriodicWork(
             "WIDGET_ROTATE",
-            ExistingPeriodicWorkPolicy.REPLACE,
+            ExistingPeriodicWorkPolicy.UPDATE,
             request
         )
     }
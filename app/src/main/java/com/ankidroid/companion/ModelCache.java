@@ -0,0 +1,133 @@
+package com.ankidroid.companion;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.ichi2.anki.FlashCardsContract;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Process-wide cache of note type metadata (name and template count), shared by every AnkiDroidHelper.
+ * Note types almost never change, so entries live until they expire or AnkiDroid reports a model change.
+ */
+final class ModelCache {
+    static final class Entry {
+        final String name;
+        final int numCards;
+        final long loadedAt;
+
+        Entry(String name, int numCards, long loadedAt) {
+            this.name = name;
+            this.numCards = numCards;
+            this.loadedAt = loadedAt;
+        }
+    }
+
+    private static final String TAG = "ModelCache";
+    private static final int MAX_ENTRIES = 256;
+    private static final long TTL_MS = 6 * 60 * 60 * 1000L;
+
+    private static ModelCache sInstance;
+
+    private final Context context;
+    private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<Long, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    private ModelCache(Context context) {
+        this.context = context.getApplicationContext();
+        try {
+            this.context.getContentResolver().registerContentObserver(
+                    FlashCardsContract.Model.CONTENT_URI,
+                    true,
+                    new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange) {
+                            invalidate();
+                        }
+                    });
+        } catch (SecurityException e) {
+            // AnkiDroid missing or not yet granted; the TTL still bounds staleness.
+            Log.w(TAG, "Model observer not registered: " + e.getMessage());
+        }
+    }
+
+    static synchronized ModelCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ModelCache(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Forget the instance so the next {@link #getInstance} starts from a fresh context; for tests.
+     */
+    static synchronized void resetInstance() {
+        sInstance = null;
+    }
+
+    /**
+     * @return the cached metadata for the model, querying AnkiDroid on a miss; null if the model is unknown
+     */
+    Entry get(long modelId) {
+        long now = SystemClock.elapsedRealtime();
+        synchronized (this) {
+            Entry cached = entries.get(modelId);
+            if (cached != null && now - cached.loadedAt < TTL_MS) {
+                return cached;
+            }
+        }
+        Entry loaded = query(modelId, now);
+        if (loaded != null) {
+            synchronized (this) {
+                entries.put(modelId, loaded);
+            }
+        }
+        return loaded;
+    }
+
+    int getNumCards(long modelId) {
+        Entry entry = get(modelId);
+        return entry != null ? entry.numCards : 0;
+    }
+
+    synchronized void invalidate() {
+        entries.clear();
+    }
+
+    private Entry query(long modelId, long now) {
+        Uri modelUri = Uri.withAppendedPath(FlashCardsContract.Model.CONTENT_URI, Long.toString(modelId));
+        Cursor modelCursor = null;
+        try {
+            modelCursor = ProviderMetrics.query(context.getContentResolver(),
+                    modelUri,
+                    new String[]{FlashCardsContract.Model.NAME, FlashCardsContract.Model.NUM_CARDS},
+                    null,
+                    null,
+                    null
+            );
+            if (modelCursor != null && modelCursor.moveToFirst()) {
+                ProviderMetrics.rows(modelUri, 1);
+                String name = modelCursor.getString(modelCursor.getColumnIndex(FlashCardsContract.Model.NAME));
+                int numCards = modelCursor.getInt(modelCursor.getColumnIndex(FlashCardsContract.Model.NUM_CARDS));
+                return new Entry(name, numCards, now);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Model query failed for " + modelId + ": " + e.getMessage());
+        } finally {
+            if (modelCursor != null) {
+                modelCursor.close();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,82 @@
+package com.ankidroid.companion;
+
+import android.content.Context;
+
+/**
+ * Holds the review card expected to follow the one on screen, fetched with its content loaded and its text
+ * sanitized, so answering on the widget or notification can show it without waiting for AnkiDroid.
+ * Shared by both surfaces; a prefetch is only handed out for the card it was computed after.
+ */
+final class NextCardPrefetcher {
+    private static NextCardPrefetcher sInstance;
+
+    private final Context context;
+    private long deckId = -1;
+    private long afterNoteId = -1;
+    private int afterOrd = -1;
+    private CardInfo next;
+
+    private NextCardPrefetcher(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    static synchronized NextCardPrefetcher getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NextCardPrefetcher(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Work out and warm the card expected after {@code shown}. Queries AnkiDroid; call off the main thread.
+     */
+    void prefetch(long deckId, CardInfo shown) {
+        if (shown == null || shown.noteID == -1) {
+            clear();
+            return;
+        }
+        synchronized (this) {
+            if (isFor(deckId, shown.noteID, shown.cardOrd) && next != null) {
+                return;
+            }
+        }
+        CardInfo guess = new AnkiDroidHelper(context).peekNextScheduledCard(deckId, shown.noteID);
+        if (guess != null) {
+            // Sanitize now so the answer renders straight from the cache.
+            SanitizedTextCache.INSTANCE.widgetText(guess, SanitizedTextCache.Field.QUESTION);
+            SanitizedTextCache.INSTANCE.widgetText(guess, SanitizedTextCache.Field.ANSWER);
+            SanitizedTextCache.INSTANCE.notificationText(guess, SanitizedTextCache.Field.QUESTION, Integer.MAX_VALUE);
+            SanitizedTextCache.INSTANCE.notificationText(guess, SanitizedTextCache.Field.ANSWER, Integer.MAX_VALUE);
+        }
+        synchronized (this) {
+            this.deckId = deckId;
+            this.afterNoteId = shown.noteID;
+            this.afterOrd = shown.cardOrd;
+            this.next = guess;
+        }
+    }
+
+    /**
+     * @return the card prefetched after the given card, or null; a card is handed out only once
+     */
+    synchronized CardInfo take(long deckId, long noteId, int ord) {
+        if (!isFor(deckId, noteId, ord) || next == null) {
+            return null;
+        }
+        CardInfo card = next;
+        next = null;
+        card.cardStartTime = System.currentTimeMillis();
+        return card;
+    }
+
+    synchronized void clear() {
+        deckId = -1;
+        afterNoteId = -1;
+        afterOrd = -1;
+        next = null;
+    }
+
+    private boolean isFor(long deckId, long noteId, int ord) {
+        return this.deckId == deckId && afterNoteId == noteId && afterOrd == ord;
+    }
+}
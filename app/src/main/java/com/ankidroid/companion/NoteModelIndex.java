@@ -0,0 +1,329 @@
+package com.ankidroid.companion;
+
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.net.Uri;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.ichi2.anki.FlashCardsContract;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Persistent, size-bounded noteId -> modelId index, so resolved notes need no provider call, even after the
+ * process is killed. A note's type can change (Change Notetype keeps the note id), so an entry is dropped
+ * when AnkiDroid reports a change to the note, or when a card looked up through it turns out to be gone.
+ * Writes to disk are batched in the background.
+ */
+final class NoteModelIndex {
+    private static final String TAG = "NoteModelIndex";
+    private static final String FILE_NAME = "note_model_index.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final int MAX_ENTRIES = 10000;
+    // Notes per "nid:" search; keeps the query string short.
+    private static final int BULK_CHUNK = 100;
+    private static final String PERSIST_LANE = "note-model-index";
+    // Lets the lookups of one refresh land in a single write.
+    private static final long PERSIST_DELAY_MS = 2000;
+
+    private static NoteModelIndex sInstance;
+
+    private final Context context;
+    private final AtomicFile file;
+    private final LinkedHashMap<Long, Long> entries = new LinkedHashMap<Long, Long>(256, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, Long> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+    private boolean loaded = false;
+    private final AtomicBoolean persistPending = new AtomicBoolean(false);
+
+    private NoteModelIndex(Context context) {
+        this.context = context.getApplicationContext();
+        this.file = new AtomicFile(new File(this.context.getFilesDir(), FILE_NAME));
+        try {
+            this.context.getContentResolver().registerContentObserver(
+                    FlashCardsContract.Note.CONTENT_URI,
+                    true,
+                    new ContentObserver(null) {
+                        @Override
+                        public void onChange(boolean selfChange, Uri uri) {
+                            long noteId = noteIdOf(uri);
+                            if (noteId != -1) {
+                                invalidate(noteId);
+                            } else {
+                                invalidateAll();
+                            }
+                        }
+                    });
+        } catch (SecurityException e) {
+            // AnkiDroid missing or not yet granted; vanished cards still drop their entries.
+            Log.w(TAG, "Note observer not registered: " + e.getMessage());
+        }
+    }
+
+    static synchronized NoteModelIndex getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new NoteModelIndex(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Forget the instance so the next {@link #getInstance} starts from a fresh context; for tests.
+     */
+    static synchronized void resetInstance() {
+        sInstance = null;
+    }
+
+    /**
+     * @return the model id of the note, or -1 if AnkiDroid does not know it
+     */
+    long getModelId(long noteId) {
+        Long modelId = resolve(Collections.singletonList(noteId)).get(noteId);
+        return modelId != null ? modelId : -1;
+    }
+
+    /**
+     * Resolve the model id of every given note. Unknown notes are looked up with bulk Note searches and
+     * remembered; notes AnkiDroid does not return are absent from the result.
+     */
+    Map<Long, Long> resolve(Collection<Long> noteIds) {
+        Map<Long, Long> result = new HashMap<>();
+        LinkedHashSet<Long> missing = new LinkedHashSet<>();
+        synchronized (this) {
+            ensureLoaded();
+            for (Long noteId : noteIds) {
+                Long modelId = entries.get(noteId);
+                if (modelId != null) {
+                    result.put(noteId, modelId);
+                } else {
+                    missing.add(noteId);
+                }
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        Map<Long, Long> fetched = queryModelIds(new ArrayList<>(missing));
+        if (!fetched.isEmpty()) {
+            synchronized (this) {
+                entries.putAll(fetched);
+            }
+            persistAsync();
+            result.putAll(fetched);
+        }
+        return result;
+    }
+
+    /**
+     * Forget the note's model, e.g. after its note type changed or one of its cards vanished.
+     */
+    void invalidate(long noteId) {
+        boolean removed;
+        synchronized (this) {
+            ensureLoaded();
+            removed = entries.remove(noteId) != null;
+        }
+        if (removed) persistAsync();
+    }
+
+    void invalidateAll() {
+        synchronized (this) {
+            ensureLoaded();
+            if (entries.isEmpty()) return;
+            entries.clear();
+        }
+        persistAsync();
+    }
+
+    /**
+     * The note id of a notes/&lt;id&gt;[/...] URI, or -1 for the whole table or an unknown shape.
+     */
+    private static long noteIdOf(Uri uri) {
+        if (uri == null) return -1;
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 2) return -1;
+        try {
+            return Long.parseLong(segments.get(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private Map<Long, Long> queryModelIds(List<Long> noteIds) {
+        Map<Long, Long> fetched = new HashMap<>();
+        boolean bulkSupported = noteIds.size() > 1;
+        for (int start = 0; bulkSupported && start < noteIds.size(); start += BULK_CHUNK) {
+            List<Long> chunk = noteIds.subList(start, Math.min(noteIds.size(), start + BULK_CHUNK));
+            Set<Long> requested = new HashSet<>(chunk);
+            StringBuilder search = new StringBuilder("nid:");
+            for (int i = 0; i < chunk.size(); i++) {
+                if (i > 0) search.append(',');
+                search.append(chunk.get(i));
+            }
+            Cursor cursor = null;
+            try {
+                cursor = ProviderMetrics.query(context.getContentResolver(),
+                        FlashCardsContract.Note.CONTENT_URI,
+                        new String[]{FlashCardsContract.Note._ID, FlashCardsContract.Note.MID},
+                        search.toString(),
+                        null,
+                        null
+                );
+                int idIdx = cursor != null ? cursor.getColumnIndex(FlashCardsContract.Note._ID) : -1;
+                int midIdx = cursor != null ? cursor.getColumnIndex(FlashCardsContract.Note.MID) : -1;
+                if (idIdx == -1 || midIdx == -1) {
+                    bulkSupported = false;
+                    break;
+                }
+                int matched = 0;
+                int read = 0;
+                while (cursor.moveToNext()) {
+                    read++;
+                    long noteId = cursor.getLong(idIdx);
+                    // The search may be ignored and return unrelated notes; only keep the requested ones.
+                    if (requested.contains(noteId)) {
+                        fetched.put(noteId, cursor.getLong(midIdx));
+                        matched++;
+                    }
+                }
+                ProviderMetrics.rows(FlashCardsContract.Note.CONTENT_URI, read);
+                if (matched == 0) {
+                    bulkSupported = false;
+                }
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Bulk note search not supported: " + e.getMessage());
+                bulkSupported = false;
+            } finally {
+                if (cursor != null) cursor.close();
+            }
+        }
+        if (!bulkSupported) {
+            for (Long noteId : noteIds) {
+                if (fetched.containsKey(noteId)) continue;
+                long modelId = queryModelId(noteId);
+                if (modelId != -1) {
+                    fetched.put(noteId, modelId);
+                }
+            }
+        }
+        return fetched;
+    }
+
+    private long queryModelId(long noteId) {
+        Uri noteUri = Uri.withAppendedPath(FlashCardsContract.Note.CONTENT_URI, Long.toString(noteId));
+        Cursor cursor = null;
+        try {
+            cursor = ProviderMetrics.query(context.getContentResolver(),
+                    noteUri,
+                    new String[]{FlashCardsContract.Note.MID},
+                    null,
+                    null,
+                    null
+            );
+            if (cursor != null && cursor.moveToFirst()) {
+                ProviderMetrics.rows(noteUri, 1);
+                return cursor.getLong(cursor.getColumnIndex(FlashCardsContract.Note.MID));
+            }
+        } catch (IllegalArgumentException e) {
+            Log.w(TAG, "Note query failed for " + noteId + ": " + e.getMessage());
+        } finally {
+            if (cursor != null) cursor.close();
+        }
+        return -1;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                long noteId = in.readLong();
+                entries.put(noteId, in.readLong());
+            }
+        } catch (FileNotFoundException e) {
+            // First run, nothing stored yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable index: " + e.getMessage());
+            entries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void persistAsync() {
+        // Updates until the write starts collapse into it; the entries are copied under the lock and written
+        // outside it.
+        if (!persistPending.compareAndSet(false, true)) {
+            return;
+        }
+        BackgroundExecutor.executeDelayed(PERSIST_LANE, () -> {
+            persistPending.set(false);
+            long[] noteIds;
+            long[] modelIds;
+            synchronized (this) {
+                noteIds = new long[entries.size()];
+                modelIds = new long[entries.size()];
+                int i = 0;
+                for (Map.Entry<Long, Long> entry : entries.entrySet()) {
+                    noteIds[i] = entry.getKey();
+                    modelIds[i] = entry.getValue();
+                    i++;
+                }
+            }
+            save(noteIds, modelIds);
+        }, PERSIST_DELAY_MS);
+    }
+
+    private void save(long[] noteIds, long[] modelIds) {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(FORMAT_VERSION);
+            data.writeInt(noteIds.length);
+            for (int i = 0; i < noteIds.length; i++) {
+                data.writeLong(noteIds[i]);
+                data.writeLong(modelIds[i]);
+            }
+            data.flush();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to persist index: " + e.getMessage());
+            if (out != null) file.failWrite(out);
+        }
+    }
+}
@@ -6,16 +6,37 @@ import android.content.Intent
 import android.util.Log
 
 class NotificationReceiver : BroadcastReceiver() {
+    companion object {
+        private const val NOTIFICATION_LANE = "notification"
+    }
+
     override fun onReceive(context: Context?, intent: Intent?) {
         Log.i("Notifications", "onReceive called")
         if (context == null)
             return
         Log.i("Notifications", "onReceive called - context is not null")
-        when (intent?.action) {
-            "ACTION_BUTTON_1" -> respondCard(context, AnkiDroidHelper.EASE_1)
-            "ACTION_BUTTON_2" -> respondCard(context, AnkiDroidHelper.EASE_2)
-            "ACTION_BUTTON_3" -> respondCard(context, AnkiDroidHelper.EASE_3)
-            "ACTION_BUTTON_4" -> respondCard(context, AnkiDroidHelper.EASE_4)
+        val ease = when (intent?.action) {
+            "ACTION_BUTTON_1" -> AnkiDroidHelper.EASE_1
+            "ACTION_BUTTON_2" -> AnkiDroidHelper.EASE_2
+            "ACTION_BUTTON_3" -> AnkiDroidHelper.EASE_3
+            "ACTION_BUTTON_4" -> AnkiDroidHelper.EASE_4
+            else -> return
+        }
+        // Answering re-queries the review queue; do it off the main thread and keep answers in order.
+        val pendingResult = goAsync()
+        val appContext = context.applicationContext
+        BackgroundExecutor.execute(NOTIFICATION_LANE) {
+            val start = ProviderMetrics.start()
+            var ok = false
+            try {
+                respondCard(appContext, ease)
+                ok = true
+            } catch (e: RuntimeException) {
+                Log.w("Notifications", "respondCard failed", e)
+            } finally {
+                ProviderMetrics.finish(ProviderMetrics.REVIEW_SUBMIT, start, ok)
+                pendingResult?.finish()
+            }
         }
     }
 
@@ -29,8 +50,10 @@ class NotificationReceiver : BroadcastReceiver() {
             return
         }
 
-        // Sync with top of queue; if different, update state and ask user to tap again.
-        val top = mAnkiDroid.getTopCardForDeck(localState.deckId)
+        // Sync with top of queue; if different, update state and ask user to tap again. Skipped while earlier
+        // answers are still being submitted, as the queue lags behind and the journal reconciles them.
+        val journalBehind = ReviewJournal.getInstance(context).hasPending(localState.deckId)
+        val top = if (journalBehind) null else mAnkiDroid.getTopCardForDeck(localState.deckId)
         if (top != null && (top.noteID != localState.noteID || top.cardOrd != localState.cardOrd)) {
             mAnkiDroid.storeState(localState.deckId, top)
             Log.w("Notifications", "Card updated at top of queue; user should tap again.")
@@ -41,9 +64,9 @@ class NotificationReceiver : BroadcastReceiver() {
         }
 
         Log.i("Notifications", "localState.cardOrd: ${localState.cardOrd}, localState.noteID: ${localState.noteID}")
-        val ok = mAnkiDroid.reviewCard(localState.noteID, localState.cardOrd, localState.cardStartTime, ease)
+        val ok = mAnkiDroid.reviewCard(localState.deckId, localState.noteID, localState.cardOrd, localState.cardStartTime, ease)
         if (!ok) {
-            Log.w("Notifications", "Review failed (card changed); refreshing state.")
+            Log.w("Notifications", "Review not recorded; refreshing state.")
             val refreshed = mAnkiDroid.queryCurrentScheduledCard(localState.deckId)
             if (refreshed != null) {
                 mAnkiDroid.storeState(localState.deckId, refreshed)
@@ -54,19 +77,57 @@ class NotificationReceiver : BroadcastReceiver() {
             return
         }
 
-        // Move to next card
-        val nextCard = mAnkiDroid.queryCurrentScheduledCard(localState.deckId)
+        // Show the prefetched next card right away, then confirm it once the queue has moved on.
+        val prefetcher = NextCardPrefetcher.getInstance(context)
+        val predicted = prefetcher.take(localState.deckId, localState.noteID, localState.cardOrd)
+            ?.takeIf { mAnkiDroid.advanceState(localState, it) }
+        if (predicted != null) {
+            Log.i("Notifications", "showing prefetched next card.")
+            Notifications.create().showNotification(context, predicted, mAnkiDroid.currentDeckName, true)
+        }
+        QueueAdvanceWatcher.watch(context, NOTIFICATION_LANE, localState.deckId, localState.noteID, localState.cardOrd,
+            object : QueueAdvanceWatcher.Callback {
+                override fun onAdvanced(top: CardInfo?) {
+                    if (predicted != null && top != null && top.noteID == predicted.noteID && top.cardOrd == predicted.cardOrd) {
+                        // The guess was right; only the card after it is still needed.
+                        prefetcher.prefetch(localState.deckId, predicted)
+                        return
+                    }
+                    val from = predicted?.let { StoredState(localState.deckId, it.noteID, it.cardOrd, it.cardStartTime) } ?: localState
+                    showNextCard(context, mAnkiDroid, from, top)
+                }
+
+                override fun onTimeout(top: CardInfo?) {
+                    if (predicted != null && ReviewJournal.getInstance(context).hasPending(localState.deckId)) {
+                        // The answer is still queued for AnkiDroid; keep showing the next card.
+                        Log.i("Notifications", "answer still pending; keeping prefetched card.")
+                        return
+                    }
+                    val from = predicted?.let { StoredState(localState.deckId, it.noteID, it.cardOrd, it.cardStartTime) } ?: localState
+                    showNextCard(context, mAnkiDroid, from, top)
+                }
+            })
+    }
+
+    private fun showNextCard(context: Context, mAnkiDroid: AnkiDroidHelper, from: StoredState, nextCard: CardInfo?) {
         if (nextCard != null) {
             Log.i("Notifications", "moving to next card.")
-            mAnkiDroid.storeState(localState.deckId, nextCard)
+            if (!mAnkiDroid.advanceState(from, nextCard)) {
+                Log.w("Notifications", "State moved on during review; not overriding it.")
+                return
+            }
             Notifications.create().showNotification(context, nextCard, mAnkiDroid.currentDeckName, true)
+            NextCardPrefetcher.getInstance(context).prefetch(from.deckId, nextCard)
         } else {
             Log.i("Notifications", "no other cards found, showing done notification")
             // No more cards to show.
             val emptyCard = CardInfo()
             emptyCard.cardOrd = -1
             emptyCard.noteID = -1
-            mAnkiDroid.storeState(localState.deckId, emptyCard)
+            if (!mAnkiDroid.advanceState(from, emptyCard)) {
+                Log.w("Notifications", "State moved on during review; not overriding it.")
+                return
+            }
             Notifications.create().showNotification(context, null, "", true)
         }
     }
@@ -10,7 +10,6 @@ import android.util.Log
 import android.view.View
 import android.widget.RemoteViews
 import androidx.core.app.NotificationCompat
-import androidx.core.text.HtmlCompat
 
 
 class Notifications {
@@ -27,8 +26,8 @@ class Notifications {
         // There is a card to show, show a notification with the expanded view.
         if (card != null) {
             val fieldMode = UserPreferences.getFieldMode(context)
-            val questionCollapsed = sanitizeText(card.rawQuestion, card.simpleQuestion, 140)
-            val answerCollapsed = sanitizeText(card.rawAnswer, card.simpleAnswer, 220)
+            val questionCollapsed = SanitizedTextCache.notificationText(card, SanitizedTextCache.Field.QUESTION, 140)
+            val answerCollapsed = SanitizedTextCache.notificationText(card, SanitizedTextCache.Field.ANSWER, 220)
 
             val headerText = when (fieldMode) {
                 FieldMode.BOTH -> questionCollapsed
@@ -37,9 +36,9 @@ class Notifications {
             }
             val safeHeader = if (headerText.isNotBlank()) headerText else context.getString(R.string.app_name)
             val expandedContent = when (fieldMode) {
-                FieldMode.BOTH -> sanitizeText(card.rawAnswer, card.simpleAnswer, 400)
+                FieldMode.BOTH -> SanitizedTextCache.notificationText(card, SanitizedTextCache.Field.ANSWER, 400)
                 FieldMode.QUESTION_ONLY -> ""
-                FieldMode.ANSWER_ONLY -> sanitizeText(card.rawAnswer, card.simpleAnswer, 1200)
+                FieldMode.ANSWER_ONLY -> SanitizedTextCache.notificationText(card, SanitizedTextCache.Field.ANSWER, 1200)
             }
 
             val displayTitle = if (deckName.isNotBlank()) "Anki • $deckName" else "Anki"
@@ -90,7 +89,7 @@ class Notifications {
                 .setVisibility(NotificationCompat.VISIBILITY_PUBLIC)
                 .setOngoing(true)
 
-            val publicText = sanitizeText(card.rawAnswer, card.simpleAnswer, 200)
+            val publicText = SanitizedTextCache.notificationText(card, SanitizedTextCache.Field.ANSWER, 200)
             publicBuilder = NotificationCompat.Builder(context, "channel_id")
                 .setSmallIcon(R.drawable.ic_notification)
                 .setContentTitle(if (deckName.isNotBlank()) "Anki • $deckName" else context.getString(R.string.app_name))
@@ -146,35 +145,6 @@ class Notifications {
         return PendingIntent.getBroadcast(context, sound.hashCode(), intent, PendingIntent.FLAG_IMMUTABLE)
     }
 
-    private fun sanitizeText(raw: String?, fallback: String?, maxChars: Int): String {
-        val source = when {
-            !raw.isNullOrBlank() -> raw
-            !fallback.isNullOrBlank() -> fallback
-            else -> ""
-        }
-        val withoutSound = source.replace(Regex("\\[sound:[^\\]]+\\]"), "")
-        val withoutImages = withoutSound.replace(Regex("(?is)<img[^>]*>"), " ")
-        val withoutUrls = withoutImages.replace(Regex("https?://\\S+"), "")
-        val withoutLinks = withoutUrls.replace(Regex("(?is)<a[^>]*>.*?</a>"), " ")
-        val withoutCustomLinks = withoutLinks
-            .replace(Regex("(?is)<div[^>]*class\\s*=\\s*\\\"link\\\"[^>]*>.*?</div>"), " ")
-            .replace(Regex("(?is)<a[^>]*>\\s*(OAAD|Youglish)\\s*</a>"), " ")
-
-        val plain = HtmlCompat.fromHtml(withoutCustomLinks, HtmlCompat.FROM_HTML_MODE_LEGACY)
-            .toString()
-        val normalized = plain
-            .replace("\r", "\n")
-            .replace(Regex("[ \\t\\f]+"), " ")
-            .replace(Regex("\\n{2,}"), "\n")
-            .trim()
-        return ellipsize(normalized, maxChars)
-    }
-
-    private fun ellipsize(text: String, max: Int): String {
-        if (text.length <= max) return text
-        return text.substring(0, max).trimEnd() + "…"
-    }
-
     private fun loadCardImage(context: Context, card: CardInfo): Bitmap? = null
 
     private fun applyImage(collapsedView: RemoteViews, expandedView: RemoteViews, bitmap: Bitmap?) {
@@ -182,123 +152,3 @@ class Notifications {
         expandedView.setViewVisibility(R.id.imageViewExpanded, View.GONE)
     }
 }
-
-// Helper for widget text sanitization: keep basic styles (bold/italic/sub/sup), convert lists/quotes, strip links.
-fun sanitizeForWidget(raw: String?, fallback: String?): CharSequence {
-    val source = when {
-        !raw.isNullOrBlank() -> raw
-        !fallback.isNullOrBlank() -> fallback
-        else -> ""
-    }
-    val NL = "§§NL§§"
-    fun applyPrefixMarkers(html: String): String {
-        val prefixTokens = listOf("❯ ", "➤ ", "→ ", "▪ ", "✎ ", "• ")
-        val rules = listOf(
-            "def" to "❯ ",
-            "definition" to "❯ ",
-            "mean" to "❯ ",
-            "sentence" to "➤ ",
-            "quote" to "❯ ",
-            "tran" to "→ ",
-            "translation" to "→ ",
-            "tr" to "→ ",
-            "ex-tr" to "→ ",
-            "ex" to "▪ ",
-            "example" to "▪ ",
-            "note" to "✎ ",
-            "memo" to "✎ ",
-            "zh" to "• ",
-            "cn" to "• ",
-            "chinese" to "• "
-        )
-        var updated = html
-        for ((keyword, prefix) in rules) {
-            val regex = Regex("(?is)<([a-z0-9]+)([^>]*)((class|id|aria-label)\\s*=\\s*\"[^\"]*?${keyword}[^\"]*\")[^>]*>")
-            updated = regex.replace(updated) { mr ->
-                val start = mr.range.first
-                val before = updated.substring(0, start)
-                val already = prefixTokens.any { tok ->
-                    before.endsWith("$NL$tok") || before.endsWith("\n$tok")
-                }
-                if (already) {
-                    mr.value
-                } else {
-                    "$NL$prefix${mr.value}"
-                }
-            }
-        }
-        return updated
-    }
-    val withAudioIcon = source
-        .replace(Regex("\\[sound:[^\\]]+\\]"), "\uD83D\uDD0A ")
-        .replace(Regex("(?is)<audio[^>]*src\\s*=\\s*\\\"([^\\\"]+)\\\"[^>]*>(?:.*?)</audio>"), "\uD83D\uDD0A ")
-        .replace(Regex("(?is)<audio[^>]*>"), "\uD83D\uDD0A ")
-    val clozeHandled = withAudioIcon.replace(Regex("\\{\\{c(\\d+)::(.*?)(::(.*?))?\\}\\}", RegexOption.IGNORE_CASE)) {
-        val idx = it.groupValues.getOrNull(1) ?: ""
-        val text = it.groupValues.getOrNull(2) ?: ""
-        "[C$idx] $text"
-    }
-    val listsHandled = clozeHandled
-        .replace(Regex("(?is)<ol[^>]*>|<ul[^>]*>"), "\n")
-        .replace(Regex("(?is)</ol>|</ul>"), "\n")
-        .replace(Regex("(?is)<li[^>]*>"), "\n• ")
-        .replace(Regex("(?is)</li>"), "")
-    val withQuotes = listsHandled
-        // Blockquotes get a special prefix and trailing blank line for spacing
-        .replace(Regex("(?is)<blockquote[^>]*>"), "\n❯ ")
-        .replace(Regex("(?is)</blockquote>"), "\n\n")
-
-    val prefixed = applyPrefixMarkers(withQuotes)
-
-    val blockCollapsed = prefixed
-        .replace(Regex("(?is)<p[^>]*>"), NL)
-        .replace(Regex("(?is)</p>"), NL)
-        .replace(Regex("(?is)<div[^>]*>"), NL)
-        .replace(Regex("(?is)</div>"), NL)
-        .replace(Regex("(?is)<br\\s*/?>"), NL)
-        .replace(Regex("(?is)<hr[^>]*>"), NL)
-        .replace(Regex("(§§NL§§\\s*){2,}"), NL)
-
-    val cleanedHtml = blockCollapsed
-        .replace(Regex("(?is)<img[^>]*>"), " ")
-        .replace(Regex("(?is)<a[^>]*>\\s*(.*?)\\s*</a>"), " ")
-        .replace(Regex("https?://\\S+"), " ")
-        .replace(Regex("\\r"), "\n")
-        .replace(Regex("\\n{3,}"), "\n\n")
-        .replace(Regex("(<br\\s*/?>\\s*){2,}"), "<br/>")
-        .trim()
-
-    val plain = HtmlCompat.fromHtml(cleanedHtml, HtmlCompat.FROM_HTML_MODE_LEGACY).toString()
-    val withMarkers = plain.replace(NL, "\n")
-    val normalized = withMarkers
-        .replace("\r", "\n")
-        .replace(Regex("[ \\t\\f]+"), " ")
-        .replace(Regex("\\n{3,}"), "\n\n")
-        .replace(Regex(" +\\n"), "\n")
-        .replace(Regex("\\n +"), "\n")
-        .trim()
-    if (normalized.isBlank()) return ""
-
-    // Compress extra blank lines to remove gaps left by stripped images/links
-    val builder = StringBuilder()
-    var lastBlank = false
-    normalized.lines().forEach { line ->
-        val trimmed = line.trim()
-        val isBlank = trimmed.isEmpty()
-        if (isBlank) {
-            if (!lastBlank && builder.isNotEmpty()) {
-                builder.append("\n")
-            }
-            lastBlank = true
-        } else {
-            if (builder.isNotEmpty()) builder.append("\n")
-            builder.append(trimmed)
-            lastBlank = false
-        }
-    }
-    val compacted = builder.toString().trim()
-    // Ensure prefixes start on their own line to prevent paragraphs from sticking together
-    val prefixPattern = Regex("(?m)([^\\n])\\s*(❯|➤|→|▪|✎|•)\\s")
-    val ensured = compacted.replace(prefixPattern, "$1\n$2 ")
-    return ensured.trim()
-}
@@ -1,31 +1,50 @@
 package com.ankidroid.companion
 
 import android.content.Context
-import android.os.Handler
-import android.os.Looper
+import android.os.SystemClock
 import android.util.Log
 import androidx.work.Worker
 import androidx.work.WorkerParameters
 
 class PeriodicWorker(context: Context, params: WorkerParameters) : Worker(context, params) {
-    private val mainThreadHandler = Handler(Looper.getMainLooper())
-
+    // doWork already runs on WorkManager's background executor, so the provider is queried right here.
     override fun doWork(): Result {
+        // Resumes submitting answers journaled before the process died.
+        ReviewJournal.getInstance(applicationContext)
         if (!UserPreferences.getNotificationsEnabled(applicationContext)) {
             return Result.success()
         }
         Log.i("BackgroundService", "Periodic worker RAN - QQ")
-        mainThreadHandler.post {
-            // Update UI or perform any operation on the main thread
-            Log.i("BackgroundService", "Periodic worker RAN - QA")
-            checkNotifications()
+        // Retrying cannot fix a missing AnkiDroid or permission; wait for the next period instead of backing off.
+        if (!AnkiDroidHelper.isApiAvailable(applicationContext)) {
+            Log.w("BackgroundService", "Periodic worker skipped, AnkiDroid API not available")
+            return Result.success()
+        }
+        val mAnkiDroid = AnkiDroidHelper(applicationContext)
+        if (!mAnkiDroid.isPermissionGranted) {
+            Log.w("BackgroundService", "Periodic worker skipped, AnkiDroid permission not granted")
+            return Result.success()
         }
-        return Result.success()
+        val start = SystemClock.elapsedRealtime()
+        val result = try {
+            checkNotifications(mAnkiDroid)
+            Result.success()
+        } catch (e: SecurityException) {
+            // Permission revoked while running; same as not granted.
+            Log.w("BackgroundService", "Periodic worker lost AnkiDroid permission", e)
+            Result.success()
+        } catch (e: RuntimeException) {
+            // AnkiDroid may be cold-starting or its provider briefly unavailable; let WorkManager back off.
+            Log.w("BackgroundService", "Periodic worker provider query failed, will retry", e)
+            Result.retry()
+        }
+        // Periodic work exposes no output data, so the duration only goes to the log.
+        Log.i("BackgroundService", "Periodic worker finished in ${SystemClock.elapsedRealtime() - start} ms")
+        return result
     }
 
-    private fun checkNotifications() {
+    private fun checkNotifications(mAnkiDroid: AnkiDroidHelper) {
         Log.i("BackgroundService", "Periodic worker RAN - QB")
-        var mAnkiDroid = AnkiDroidHelper(applicationContext)
         Log.i("BackgroundService", "Periodic worker RAN - 1")
         val localState = mAnkiDroid.storedState
         Log.i("BackgroundService", "Periodic worker RAN - 2")
@@ -42,7 +61,13 @@ class PeriodicWorker(context: Context, params: WorkerParameters) : Worker(contex
         }
 
         Log.i("BackgroundService", "LocalState card was empty, trying to get a new card")
-        // No card found on local state found, try to get the next scheduled card.
+        // No card found on local state found, try to get the next scheduled card. The peek throws when the
+        // queue cannot be read (AnkiDroid not running returns a null cursor), so the worker retries instead
+        // of reporting success; only a really empty queue ends here quietly.
+        if (mAnkiDroid.peekTopScheduledCard(localState.deckId) == null) {
+            Log.i("BackgroundService", "next card is NULL")
+            return
+        }
         val nextCard = mAnkiDroid.queryCurrentScheduledCard(localState.deckId)
         if (nextCard != null) {
             Log.i("BackgroundService", "next card is not null, trying to send a notification.")
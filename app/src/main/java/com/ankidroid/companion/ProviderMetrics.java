@@ -0,0 +1,217 @@
+package com.ankidroid.companion;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Counters and latency samples for every AnkiDroid provider call, plus end-to-end timings for widget
+ * refreshes and review submissions. Totals are kept per operation; the most recent samples live in a
+ * lock-free ring buffer that backs the percentiles on the diagnostics screen.
+ */
+final class ProviderMetrics {
+    static final String WIDGET_REFRESH = "widget_refresh";
+    static final String REVIEW_SUBMIT = "review_submit";
+    // Background submission of a journaled answer.
+    static final String REVIEW_REPLAY = "review_replay";
+
+    // Power of two so the slot is a mask of the cursor.
+    private static final int RING_SIZE = 1024;
+
+    private static final class Sample {
+        final String name;
+        final long nanos;
+
+        Sample(String name, long nanos) {
+            this.name = name;
+            this.nanos = nanos;
+        }
+    }
+
+    private static final class Totals {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong failures = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong nanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    private static final AtomicReferenceArray<Sample> ring = new AtomicReferenceArray<>(RING_SIZE);
+    private static final AtomicLong ringCursor = new AtomicLong();
+    private static final ConcurrentHashMap<String, Totals> totals = new ConcurrentHashMap<>();
+    private static volatile long sinceMs = System.currentTimeMillis();
+
+    private ProviderMetrics() {
+    }
+
+    /**
+     * {@link ContentResolver#query} with accounting. A null cursor counts as a failure; exceptions are
+     * counted and rethrown. Rows are not counted here: asking a window-backed cursor for its count fills
+     * the whole result set, so callers report the rows they actually read through {@link #rows}.
+     */
+    static Cursor query(ContentResolver resolver, Uri uri, String[] projection, String selection,
+                        String[] selectionArgs, String sortOrder) {
+        String name = "query " + route(uri);
+        long start = System.nanoTime();
+        try {
+            Cursor cursor = resolver.query(uri, projection, selection, selectionArgs, sortOrder);
+            record(name, start, 0, cursor == null);
+            return cursor;
+        } catch (RuntimeException e) {
+            record(name, start, 0, true);
+            throw e;
+        }
+    }
+
+    static int update(ContentResolver resolver, Uri uri, ContentValues values, String selection, String[] selectionArgs) {
+        String name = "update " + route(uri);
+        long start = System.nanoTime();
+        try {
+            int updated = resolver.update(uri, values, selection, selectionArgs);
+            record(name, start, updated, false);
+            return updated;
+        } catch (RuntimeException e) {
+            record(name, start, 0, true);
+            throw e;
+        }
+    }
+
+    /**
+     * Add the rows a caller read from a cursor returned by {@link #query} for the same URI.
+     */
+    static void rows(Uri uri, int rows) {
+        if (rows > 0) totalsFor("query " + route(uri)).rows.addAndGet(rows);
+    }
+
+    static long start() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Record an end-to-end operation started with {@link #start()}.
+     */
+    static void finish(String name, long start, boolean ok) {
+        record(name, start, 0, !ok);
+    }
+
+    private static void record(String name, long start, int rows, boolean failed) {
+        long nanos = System.nanoTime() - start;
+        Totals t = totalsFor(name);
+        t.calls.incrementAndGet();
+        if (failed) t.failures.incrementAndGet();
+        t.rows.addAndGet(rows);
+        t.nanos.addAndGet(nanos);
+        long max;
+        while (nanos > (max = t.maxNanos.get()) && !t.maxNanos.compareAndSet(max, nanos)) {
+            // retry
+        }
+        int slot = (int) (ringCursor.getAndIncrement() & (RING_SIZE - 1));
+        ring.set(slot, new Sample(name, nanos));
+    }
+
+    private static Totals totalsFor(String name) {
+        Totals t = totals.get(name);
+        if (t == null) {
+            Totals created = new Totals();
+            t = totals.putIfAbsent(name, created);
+            if (t == null) t = created;
+        }
+        return t;
+    }
+
+    /**
+     * URI shape with ids replaced, e.g. notes/#/cards/#, so counters group by endpoint rather than by row.
+     */
+    static String route(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.isEmpty()) {
+            return uri.getAuthority() != null ? uri.getAuthority() : "/";
+        }
+        StringBuilder route = new StringBuilder();
+        for (String segment : segments) {
+            if (route.length() > 0) route.append('/');
+            route.append(isNumber(segment) ? "#" : segment);
+        }
+        return route.toString();
+    }
+
+    private static boolean isNumber(String segment) {
+        if (segment.isEmpty()) return false;
+        for (int i = 0; i < segment.length(); i++) {
+            char c = segment.charAt(i);
+            if ((c < '0' || c > '9') && !(i == 0 && c == '-' && segment.length() > 1)) return false;
+        }
+        return true;
+    }
+
+    static void reset() {
+        totals.clear();
+        for (int i = 0; i < RING_SIZE; i++) {
+            ring.set(i, null);
+        }
+        sinceMs = System.currentTimeMillis();
+    }
+
+    /**
+     * Plain-text table of all operations: totals since the last reset and percentiles over the most recent
+     * samples.
+     */
+    static String report() {
+        Map<String, List<Long>> recent = new HashMap<>();
+        for (int i = 0; i < RING_SIZE; i++) {
+            Sample sample = ring.get(i);
+            if (sample == null) continue;
+            List<Long> list = recent.get(sample.name);
+            if (list == null) {
+                list = new ArrayList<>();
+                recent.put(sample.name, list);
+            }
+            list.add(sample.nanos);
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss", Locale.US);
+        StringBuilder out = new StringBuilder();
+        out.append("Provider metrics since ").append(format.format(new Date(sinceMs)))
+                .append(", generated ").append(format.format(new Date())).append('\n');
+        out.append("Latency in ms; p50/p90/p99 over the last ").append(RING_SIZE).append(" calls.\n\n");
+        for (Map.Entry<String, Totals> entry : new TreeMap<>(totals).entrySet()) {
+            Totals t = entry.getValue();
+            long calls = t.calls.get();
+            out.append(entry.getKey()).append('\n');
+            out.append(String.format(Locale.US, "  calls=%d failures=%d rows=%d avg=%.1f max=%.1f",
+                    calls, t.failures.get(), t.rows.get(),
+                    calls == 0 ? 0.0 : t.nanos.get() / 1e6 / calls, t.maxNanos.get() / 1e6));
+            List<Long> samples = recent.get(entry.getKey());
+            if (samples != null && !samples.isEmpty()) {
+                long[] sorted = new long[samples.size()];
+                for (int i = 0; i < sorted.length; i++) sorted[i] = samples.get(i);
+                Arrays.sort(sorted);
+                out.append(String.format(Locale.US, " p50=%.1f p90=%.1f p99=%.1f",
+                        percentile(sorted, 50), percentile(sorted, 90), percentile(sorted, 99)));
+            }
+            out.append('\n');
+        }
+        if (totals.isEmpty()) {
+            out.append("No provider calls recorded yet.\n");
+        }
+        return out.toString();
+    }
+
+    private static double percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))] / 1e6;
+    }
+}
@@ -0,0 +1,109 @@
+package com.ankidroid.companion;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.util.Log;
+
+import com.ichi2.anki.FlashCardsContract;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Waits for the review queue to move past an answered card. Answers reach AnkiDroid through
+ * {@link ReviewJournal}, so watching starts once the card's journaled answer is submitted. The queue is
+ * checked once right then, since AnkiDroid usually advances within the answer call, then again on every
+ * change notification for the ReviewInfo URI, with one last check at a deadline for providers that send no
+ * notifications.
+ */
+final class QueueAdvanceWatcher {
+    private static final String TAG = "QueueAdvanceWatcher";
+    private static final long DEADLINE_MS = 2000;
+
+    interface Callback {
+        /**
+         * The queue moved on; {@code top} is the new top card, or null if nothing is left to review.
+         */
+        void onAdvanced(CardInfo top);
+
+        /**
+         * The answered card was still on top at the deadline.
+         */
+        void onTimeout(CardInfo top);
+    }
+
+    private QueueAdvanceWatcher() {
+    }
+
+    /**
+     * Start watching. If the answer is already submitted the first check runs on the calling thread; later
+     * checks and the callback run on {@code lane}, so the caller should already be on it.
+     */
+    static void watch(Context context, String lane, long deckId, long answeredNoteId, int answeredOrd, Callback callback) {
+        Watch watch = new Watch(context.getApplicationContext(), lane, deckId, answeredNoteId, answeredOrd, callback);
+        boolean waiting = ReviewJournal.getInstance(context).whenSettled(answeredNoteId, answeredOrd,
+                () -> BackgroundExecutor.execute(lane, watch::start));
+        if (!waiting) {
+            watch.start();
+        }
+    }
+
+    private static final class Watch extends ContentObserver {
+        private final Context context;
+        private final String lane;
+        private final long deckId;
+        private final long answeredNoteId;
+        private final int answeredOrd;
+        private final Callback callback;
+        private final AtomicBoolean done = new AtomicBoolean();
+        private boolean registered;
+
+        Watch(Context context, String lane, long deckId, long answeredNoteId, int answeredOrd, Callback callback) {
+            super(null);
+            this.context = context;
+            this.lane = lane;
+            this.deckId = deckId;
+            this.answeredNoteId = answeredNoteId;
+            this.answeredOrd = answeredOrd;
+            this.callback = callback;
+        }
+
+        void start() {
+            ContentResolver resolver = context.getContentResolver();
+            try {
+                resolver.registerContentObserver(FlashCardsContract.ReviewInfo.CONTENT_URI, true, this);
+                registered = true;
+            } catch (SecurityException e) {
+                // Only the deadline check is left.
+                Log.w(TAG, "ReviewInfo observer not registered: " + e.getMessage());
+            }
+            check(false);
+            if (!done.get()) {
+                BackgroundExecutor.executeDelayed(lane, () -> check(true), DEADLINE_MS);
+            }
+        }
+
+        @Override
+        public void onChange(boolean selfChange) {
+            if (!done.get()) {
+                BackgroundExecutor.execute(lane, () -> check(false));
+            }
+        }
+
+        private void check(boolean deadline) {
+            if (done.get()) return;
+            CardInfo top = new AnkiDroidHelper(context).queryCurrentScheduledCard(deckId);
+            boolean advanced = top == null || top.noteID != answeredNoteId || top.cardOrd != answeredOrd;
+            if (!advanced && !deadline) return;
+            if (!done.compareAndSet(false, true)) return;
+            if (registered) {
+                context.getContentResolver().unregisterContentObserver(this);
+            }
+            if (advanced) {
+                callback.onAdvanced(top);
+            } else {
+                callback.onTimeout(top);
+            }
+        }
+    }
+}
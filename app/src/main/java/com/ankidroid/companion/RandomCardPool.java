@@ -0,0 +1,145 @@
+package com.ankidroid.companion;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Random-mode card pool for the widget: a queue of upcoming cards that is refilled in the background,
+ * plus a short history so Prev/Next are plain in-memory moves. Not thread-safe; only touched from the
+ * widget lane.
+ */
+final class RandomCardPool {
+    private static final int HISTORY_LIMIT = 20;
+
+    private final ArrayList<CardInfo> history = new ArrayList<>();
+    private final ArrayDeque<CardInfo> upcoming = new ArrayDeque<>();
+    private int position = -1;
+    private String key;
+
+    // Describes where the last refill came from, for the widget mode label.
+    boolean roamActive = false;
+    int lastQueueSize = -1;
+
+    /**
+     * Drop everything if the pool was built for a different deck/mode/filter.
+     * @return true if the pool was reset
+     */
+    boolean resetIfKeyChanged(String newKey) {
+        if (newKey.equals(key)) {
+            return false;
+        }
+        clear();
+        key = newKey;
+        return true;
+    }
+
+    boolean isFor(String otherKey) {
+        return otherKey.equals(key);
+    }
+
+    void clear() {
+        history.clear();
+        upcoming.clear();
+        position = -1;
+        key = null;
+        roamActive = false;
+        lastQueueSize = -1;
+    }
+
+    CardInfo current() {
+        return position >= 0 && position < history.size() ? history.get(position) : null;
+    }
+
+    /**
+     * Move forward: replay history after a Prev, otherwise take the next upcoming card.
+     * @return the new current card, or the unchanged current card if nothing is queued
+     */
+    CardInfo next() {
+        if (position < history.size() - 1) {
+            position++;
+            return history.get(position);
+        }
+        CardInfo card = upcoming.poll();
+        if (card == null) {
+            return current();
+        }
+        history.add(card);
+        if (history.size() > HISTORY_LIMIT) {
+            history.remove(0);
+        }
+        position = history.size() - 1;
+        return card;
+    }
+
+    CardInfo prev() {
+        if (position > 0) {
+            position--;
+        }
+        return current();
+    }
+
+    boolean hasNext() {
+        return position < history.size() - 1 || !upcoming.isEmpty();
+    }
+
+    int upcomingSize() {
+        return upcoming.size();
+    }
+
+    int size() {
+        return history.size() + upcoming.size();
+    }
+
+    /**
+     * @return the current card followed by the upcoming ones, for persisting
+     */
+    List<CardInfo> snapshot() {
+        ArrayList<CardInfo> cards = new ArrayList<>(upcoming.size() + 1);
+        CardInfo shown = current();
+        if (shown != null) {
+            cards.add(shown);
+        }
+        cards.addAll(upcoming);
+        return cards;
+    }
+
+    /**
+     * Rebuild the pool from a {@link #snapshot()}; the first card becomes current. History is not kept.
+     */
+    void restore(List<CardInfo> cards) {
+        history.clear();
+        upcoming.clear();
+        position = -1;
+        if (cards.isEmpty()) {
+            return;
+        }
+        history.add(cards.get(0));
+        position = 0;
+        upcoming.addAll(cards.subList(1, cards.size()));
+    }
+
+    /**
+     * Queue cards that are not already upcoming or on screen.
+     */
+    void addUpcoming(List<CardInfo> cards) {
+        CardInfo shown = current();
+        for (CardInfo card : cards) {
+            if (shown != null && sameCard(shown, card)) continue;
+            boolean queued = false;
+            for (CardInfo existing : upcoming) {
+                if (sameCard(existing, card)) {
+                    queued = true;
+                    break;
+                }
+            }
+            if (!queued) {
+                upcoming.offer(card);
+            }
+        }
+    }
+
+    private static boolean sameCard(CardInfo a, CardInfo b) {
+        return a.noteID == b.noteID && a.cardOrd == b.cardOrd;
+    }
+}
@@ -0,0 +1,91 @@
+package com.ankidroid.companion;
+
+import com.ankidroid.companion.UserPreferences.CardSourceMode;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Single-flight gate for widget refreshes. Callers take a ticket when the refresh is asked for (for a
+ * broadcast, before its work is queued on the widget lane) and run it on the lane. A pass covers every
+ * ticket for the same (deck, mode) taken before it started, so tickets queued behind it are answered by
+ * that pass and skipped; a burst of requests (settings spinners, refresh button, rotation worker, review
+ * retries) costs one provider pass, with no added delay for a lone request.
+ */
+final class RefreshCoordinator {
+    interface Pass {
+        void run(boolean advanceRandom);
+    }
+
+    static final class Ticket {
+        final String key;
+        final long seq;
+        final boolean advanceRandom;
+
+        private Ticket(String key, long seq, boolean advanceRandom) {
+            this.key = key;
+            this.seq = seq;
+            this.advanceRandom = advanceRandom;
+        }
+    }
+
+    private static final class KeyState {
+        long requestedSeq;
+        // Highest ticket answered by a pass that has started.
+        long coveredSeq;
+        // A covered request asked to advance the random card; the next pass does it once.
+        boolean advanceWanted;
+    }
+
+    private static final Map<String, KeyState> states = new HashMap<>();
+    private static long requested;
+    private static long coalesced;
+    private static long passes;
+
+    private RefreshCoordinator() {
+    }
+
+    static synchronized Ticket request(long deckId, CardSourceMode mode, boolean advanceRandom) {
+        String key = deckId + ":" + mode;
+        KeyState state = states.get(key);
+        if (state == null) {
+            state = new KeyState();
+            states.put(key, state);
+        }
+        requested++;
+        state.requestedSeq++;
+        state.advanceWanted |= advanceRandom;
+        return new Ticket(key, state.requestedSeq, advanceRandom);
+    }
+
+    /**
+     * Run the pass for the ticket on the calling thread, unless a pass started after the ticket was taken.
+     * Joined requests only widen a pass: if any of them asked to advance the random card, it advances once.
+     */
+    static void run(Ticket ticket, Pass pass) {
+        boolean advance;
+        synchronized (RefreshCoordinator.class) {
+            KeyState state = states.get(ticket.key);
+            if (state.coveredSeq >= ticket.seq) {
+                coalesced++;
+                return;
+            }
+            state.coveredSeq = state.requestedSeq;
+            advance = state.advanceWanted || ticket.advanceRandom;
+            state.advanceWanted = false;
+            passes++;
+        }
+        pass.run(advance);
+    }
+
+    static synchronized String stats() {
+        return String.format(Locale.US, "requested=%d coalesced=%d passes=%d", requested, coalesced, passes);
+    }
+
+    static synchronized void reset() {
+        requested = 0;
+        coalesced = 0;
+        passes = 0;
+    }
+}
@@ -0,0 +1,85 @@
+package com.ankidroid.companion;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Uniform sample of up to k distinct note ids from a stream of unknown length (Algorithm R). Duplicates in
+ * the stream, e.g. one row per card of the same note, are ignored. The sample takes O(k) space, but the
+ * dedup set keeps every distinct id offered, so total memory is O(n) in the deck size; a full scan reuses
+ * that set to seed {@link DeckNoteIndex}. Not thread-safe.
+ */
+final class ReservoirSampler {
+    private final long[] sample;
+    private final LongHashSet seen = new LongHashSet();
+    private final Random random;
+    private int size;
+
+    ReservoirSampler(int capacity, Random random) {
+        this.sample = new long[Math.max(1, capacity)];
+        this.random = random;
+    }
+
+    /**
+     * @return true if the id had not been offered before
+     */
+    boolean offer(long noteId) {
+        if (!seen.add(noteId)) {
+            return false;
+        }
+        if (size < sample.length) {
+            sample[size++] = noteId;
+        } else {
+            // Each of the n distinct ids seen so far stays in the sample with probability k/n.
+            int j = random.nextInt(seen.size());
+            if (j < sample.length) {
+                sample[j] = noteId;
+            }
+        }
+        return true;
+    }
+
+    boolean contains(long noteId) {
+        return seen.contains(noteId);
+    }
+
+    boolean isFull() {
+        return size >= sample.length;
+    }
+
+    /** Number of distinct ids offered so far. */
+    int distinctSeen() {
+        return seen.size();
+    }
+
+    /**
+     * @return every distinct id offered so far, ascending
+     */
+    long[] distinctSorted() {
+        return seen.toSortedArray();
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the sampled ids in random order
+     */
+    List<Long> shuffledSample() {
+        long[] copy = new long[size];
+        System.arraycopy(sample, 0, copy, 0, size);
+        for (int i = size - 1; i > 0; i--) {
+            int j = random.nextInt(i + 1);
+            long tmp = copy[i];
+            copy[i] = copy[j];
+            copy[j] = tmp;
+        }
+        List<Long> result = new ArrayList<>(size);
+        for (long id : copy) {
+            result.add(id);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,93 @@
+package com.ankidroid.companion;
+
+import android.database.Cursor;
+
+import com.ichi2.anki.FlashCardsContract;
+
+import java.util.AbstractList;
+import java.util.List;
+
+/**
+ * Columnar view of a ReviewInfo cursor. Column indices are resolved once and the id columns are read
+ * into primitive arrays, so callers can filter rows without creating a CardInfo per row. The string
+ * columns are only read for rows turned into cards, and stay unparsed JSON until the card asks.
+ *
+ * The reader does not own the cursor; it must stay open until the last {@link #card} call.
+ */
+final class ReviewInfoReader {
+    private final Cursor cursor;
+    private final int buttonCountIdx;
+    private final int nextReviewTimesIdx;
+    private final int mediaFilesIdx;
+    private final long[] noteIds;
+    private final int[] ords;
+    private final int size;
+
+    ReviewInfoReader(Cursor cursor) {
+        this.cursor = cursor;
+        int noteIdx = cursor.getColumnIndex(FlashCardsContract.ReviewInfo.NOTE_ID);
+        int ordIdx = cursor.getColumnIndex(FlashCardsContract.ReviewInfo.CARD_ORD);
+        buttonCountIdx = cursor.getColumnIndex(FlashCardsContract.ReviewInfo.BUTTON_COUNT);
+        nextReviewTimesIdx = cursor.getColumnIndex(FlashCardsContract.ReviewInfo.NEXT_REVIEW_TIMES);
+        mediaFilesIdx = cursor.getColumnIndex(FlashCardsContract.ReviewInfo.MEDIA_FILES);
+        int count = noteIdx == -1 || ordIdx == -1 ? 0 : Math.max(0, cursor.getCount());
+        noteIds = new long[count];
+        ords = new int[count];
+        int row = 0;
+        if (count > 0 && cursor.moveToFirst()) {
+            do {
+                noteIds[row] = cursor.getLong(noteIdx);
+                ords[row] = cursor.getInt(ordIdx);
+                row++;
+            } while (row < count && cursor.moveToNext());
+        }
+        size = row;
+        ProviderMetrics.rows(FlashCardsContract.ReviewInfo.CONTENT_URI, size);
+    }
+
+    int size() {
+        return size;
+    }
+
+    long noteId(int row) {
+        return noteIds[row];
+    }
+
+    int ord(int row) {
+        return ords[row];
+    }
+
+    /**
+     * The note ids of all rows, boxed lazily, for lookups that take a collection.
+     */
+    List<Long> noteIds() {
+        return new AbstractList<Long>() {
+            @Override
+            public Long get(int index) {
+                return noteIds[index];
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+        };
+    }
+
+    /**
+     * Build the card for one row, reading its remaining columns from the cursor.
+     */
+    CardInfo card(int row, long modelId) {
+        CardInfo card = new CardInfo();
+        card.noteID = noteIds[row];
+        card.cardOrd = ords[row];
+        card.modelId = modelId;
+        if (cursor.moveToPosition(row)) {
+            if (buttonCountIdx != -1) card.buttonCount = cursor.getInt(buttonCountIdx);
+            if (nextReviewTimesIdx != -1) card.nextReviewTimesJson = cursor.getString(nextReviewTimesIdx);
+            if (mediaFilesIdx != -1) card.mediaFilesJson = cursor.getString(mediaFilesIdx);
+        }
+        card.cardStartTime = System.currentTimeMillis();
+        return card;
+    }
+}
@@ -0,0 +1,399 @@
+package com.ankidroid.companion;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Append-only journal of review answers. An answer is written to disk and the tap returns; a background
+ * lane submits entries to AnkiDroid in order. Submissions that fail are retried with exponential backoff
+ * while AnkiDroid is unavailable, and reconciled against the review queue when AnkiDroid rejects them: an
+ * answer for a card that is no longer on top of its deck is stale and dropped.
+ *
+ * The file is only ever appended to: an answer record, a "submitting" marker synced before each submission,
+ * and a "done" marker once the entry is settled. It is deleted once every entry is done. An entry found
+ * with a submitting marker but no done marker after process death may already have reached AnkiDroid, so
+ * it is only replayed if its card is still on top of the queue.
+ */
+final class ReviewJournal {
+    private static final String TAG = "ReviewJournal";
+    private static final String FILE_NAME = "review_journal.bin";
+    private static final int FORMAT_VERSION = 2;
+    private static final byte RECORD_ANSWER = 1;
+    private static final byte RECORD_SUBMITTING = 2;
+    private static final byte RECORD_DONE = 3;
+    // type + seq, plus deckId, noteId, ord, ease, timeTaken, answeredAt for answers.
+    private static final int MARKER_SIZE = 1 + 8;
+    private static final int ANSWER_SIZE = MARKER_SIZE + 8 + 8 + 4 + 4 + 8 + 8;
+    private static final String LANE = "review-journal";
+    private static final long BASE_BACKOFF_MS = 1000;
+    private static final long MAX_BACKOFF_MS = 60 * 1000L;
+    // Rejections without a different card on top; past this the answer is given up.
+    private static final int MAX_REJECTIONS = 5;
+    // An answer this old no longer says anything about the card's current interval.
+    private static final long MAX_AGE_MS = 12 * 60 * 60 * 1000L;
+
+    private static final class Entry {
+        final long seq;
+        final long deckId;
+        final long noteId;
+        final int ord;
+        final int ease;
+        final long timeTaken;
+        final long answeredAt;
+        int rejections;
+        // A submission was started before the process died; AnkiDroid may already have the answer.
+        boolean inDoubt;
+        // Run once the entry is submitted or dropped.
+        List<Runnable> onSettled;
+
+        Entry(long seq, long deckId, long noteId, int ord, int ease, long timeTaken, long answeredAt) {
+            this.seq = seq;
+            this.deckId = deckId;
+            this.noteId = noteId;
+            this.ord = ord;
+            this.ease = ease;
+            this.timeTaken = timeTaken;
+            this.answeredAt = answeredAt;
+        }
+    }
+
+    private enum Outcome { SUBMITTED, DROPPED, RETRY }
+
+    private static ReviewJournal sInstance;
+
+    private final Context context;
+    private final File file;
+    private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+    private long nextSeq = 1;
+    private boolean drainScheduled = false;
+    private int failures = 0;
+
+    private ReviewJournal(Context context) {
+        this.context = context.getApplicationContext();
+        this.file = new File(this.context.getFilesDir(), FILE_NAME);
+        load();
+    }
+
+    static synchronized ReviewJournal getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new ReviewJournal(context);
+            sInstance.scheduleDrain(0);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Record an answer and queue it for submission. A second answer for a card whose answer is still
+     * pending is ignored, since AnkiDroid has not moved past the card yet.
+     * @return false if the answer could not be written to disk
+     */
+    boolean append(long deckId, long noteId, int ord, int ease, long timeTaken) {
+        synchronized (this) {
+            if (find(noteId, ord) != null) {
+                Log.w(TAG, "Answer for noteId=" + noteId + " ord=" + ord + " already pending; ignoring another");
+                return true;
+            }
+            Entry entry = new Entry(nextSeq, deckId, noteId, ord, ease, timeTaken, System.currentTimeMillis());
+            try {
+                appendRecord(RECORD_ANSWER, entry);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to record answer: " + e.getMessage());
+                return false;
+            }
+            nextSeq++;
+            pending.add(entry);
+        }
+        scheduleDrain(0);
+        return true;
+    }
+
+    /**
+     * Whether an answer for the deck is still waiting to reach AnkiDroid, in which case the review queue
+     * lags behind what the user has answered.
+     */
+    synchronized boolean hasPending(long deckId) {
+        for (Entry entry : pending) {
+            if (entry.deckId == deckId) return true;
+        }
+        return false;
+    }
+
+    /**
+     * Whether an answer for the card is still waiting to reach AnkiDroid.
+     */
+    synchronized boolean isPending(long noteId, int ord) {
+        return find(noteId, ord) != null;
+    }
+
+    /**
+     * Run {@code action} on the journal lane once the pending answer for the card is submitted or dropped.
+     * @return false if no answer for the card is pending; the action is not run
+     */
+    synchronized boolean whenSettled(long noteId, int ord, Runnable action) {
+        Entry entry = find(noteId, ord);
+        if (entry == null) return false;
+        if (entry.onSettled == null) entry.onSettled = new ArrayList<>();
+        entry.onSettled.add(action);
+        return true;
+    }
+
+    private Entry find(long noteId, int ord) {
+        for (Entry entry : pending) {
+            if (entry.noteId == noteId && entry.ord == ord) return entry;
+        }
+        return null;
+    }
+
+    synchronized int size() {
+        return pending.size();
+    }
+
+    private synchronized void scheduleDrain(long delayMs) {
+        if (drainScheduled || pending.isEmpty()) return;
+        drainScheduled = true;
+        if (delayMs <= 0) {
+            BackgroundExecutor.execute(LANE, this::drain);
+        } else {
+            BackgroundExecutor.executeDelayed(LANE, this::drain, delayMs);
+        }
+    }
+
+    private void drain() {
+        synchronized (this) {
+            drainScheduled = false;
+        }
+        boolean dropped = false;
+        while (true) {
+            Entry head;
+            synchronized (this) {
+                head = pending.peek();
+            }
+            if (head == null) break;
+            Outcome outcome = submit(head);
+            if (outcome == Outcome.RETRY) {
+                long delay = Math.min(MAX_BACKOFF_MS, BASE_BACKOFF_MS << Math.min(failures, 6));
+                failures++;
+                Log.w(TAG, "AnkiDroid unavailable or busy; retrying " + size() + " answers in " + delay + " ms");
+                scheduleDrain(delay);
+                break;
+            }
+            failures = 0;
+            dropped |= outcome == Outcome.DROPPED;
+            settle(head);
+            if (head.onSettled != null) {
+                for (Runnable action : head.onSettled) {
+                    action.run();
+                }
+            }
+        }
+        if (dropped) {
+            // The widget may show a card that assumed the dropped answer went through.
+            new CompanionWidgetProvider().onReceive(context,
+                    new Intent(CompanionWidgetProvider.ACTION_REFRESH).setClass(context, CompanionWidgetProvider.class));
+        }
+    }
+
+    private Outcome submit(Entry entry) {
+        if (System.currentTimeMillis() - entry.answeredAt > MAX_AGE_MS) {
+            Log.w(TAG, "Dropping answer older than " + MAX_AGE_MS + " ms for noteId=" + entry.noteId + " ord=" + entry.ord);
+            return Outcome.DROPPED;
+        }
+        AnkiDroidHelper helper = new AnkiDroidHelper(context);
+        if (entry.inDoubt) {
+            // Only replay if the card is still waiting for an answer; otherwise the earlier attempt landed.
+            CardInfo top;
+            try {
+                top = helper.peekTopScheduledCard(entry.deckId);
+            } catch (RuntimeException e) {
+                return Outcome.RETRY;
+            }
+            if (top == null || top.noteID != entry.noteId || top.cardOrd != entry.ord) {
+                Log.i(TAG, "Answer for noteId=" + entry.noteId + " ord=" + entry.ord + " was interrupted but its card moved on; not replaying");
+                return Outcome.DROPPED;
+            }
+            entry.inDoubt = false;
+        }
+        synchronized (this) {
+            try {
+                appendRecord(RECORD_SUBMITTING, entry);
+            } catch (IOException e) {
+                // Without the marker a crash after submitting would replay the answer.
+                Log.w(TAG, "Failed to mark answer as submitting: " + e.getMessage());
+                return Outcome.RETRY;
+            }
+        }
+        long start = ProviderMetrics.start();
+        boolean ok = helper.submitReview(entry.noteId, entry.ord, entry.ease, entry.timeTaken);
+        ProviderMetrics.finish(ProviderMetrics.REVIEW_REPLAY, start, ok);
+        if (ok) {
+            return Outcome.SUBMITTED;
+        }
+        // Reconcile: a different card on top means this one was answered or rescheduled elsewhere.
+        CardInfo top;
+        try {
+            top = helper.peekTopScheduledCard(entry.deckId);
+        } catch (RuntimeException e) {
+            return Outcome.RETRY;
+        }
+        if (top != null && (top.noteID != entry.noteId || top.cardOrd != entry.ord)) {
+            Log.w(TAG, "Dropping stale answer for noteId=" + entry.noteId + " ord=" + entry.ord + "; top is " + top.noteID + "/" + top.cardOrd);
+            return Outcome.DROPPED;
+        }
+        if (++entry.rejections >= MAX_REJECTIONS) {
+            Log.w(TAG, "Giving up on answer for noteId=" + entry.noteId + " ord=" + entry.ord + " after " + entry.rejections + " rejections");
+            return Outcome.DROPPED;
+        }
+        return Outcome.RETRY;
+    }
+
+    /**
+     * Mark the head entry done and forget it; the file goes away with the last entry.
+     */
+    private synchronized void settle(Entry entry) {
+        pending.remove(entry);
+        if (pending.isEmpty()) {
+            if (!file.delete() && file.exists()) {
+                Log.w(TAG, "Failed to delete drained journal");
+            }
+            return;
+        }
+        try {
+            appendRecord(RECORD_DONE, entry);
+        } catch (IOException e) {
+            // Worst case the entry is reloaded in doubt and checked against the queue before any replay.
+            Log.w(TAG, "Failed to mark answer done: " + e.getMessage());
+        }
+    }
+
+    private void appendRecord(byte type, Entry entry) throws IOException {
+        boolean fresh = !file.exists() || file.length() == 0;
+        FileOutputStream out = new FileOutputStream(file, true);
+        try {
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            if (fresh) data.writeInt(FORMAT_VERSION);
+            data.writeByte(type);
+            data.writeLong(entry.seq);
+            if (type == RECORD_ANSWER) {
+                data.writeLong(entry.deckId);
+                data.writeLong(entry.noteId);
+                data.writeInt(entry.ord);
+                data.writeInt(entry.ease);
+                data.writeLong(entry.timeTaken);
+                data.writeLong(entry.answeredAt);
+            }
+            data.flush();
+            // The record must outlive the process before the caller moves on.
+            out.getFD().sync();
+        } finally {
+            out.close();
+        }
+    }
+
+    private void load() {
+        Map<Long, Entry> bySeq = new HashMap<>();
+        long validLength = 0;
+        boolean truncated = false;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            if (in.readInt() != FORMAT_VERSION) {
+                in.close();
+                in = null;
+                Log.w(TAG, "Discarding journal with unknown format");
+                file.delete();
+                return;
+            }
+            validLength = 4;
+            while (true) {
+                byte type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    long seq = in.readLong();
+                    if (type == RECORD_ANSWER) {
+                        Entry entry = new Entry(seq, in.readLong(), in.readLong(), in.readInt(), in.readInt(), in.readLong(), in.readLong());
+                        bySeq.put(seq, entry);
+                        pending.add(entry);
+                        validLength += ANSWER_SIZE;
+                    } else if (type == RECORD_SUBMITTING || type == RECORD_DONE) {
+                        Entry entry = bySeq.get(seq);
+                        if (entry != null) {
+                            if (type == RECORD_SUBMITTING) entry.inDoubt = true;
+                            else pending.remove(entry);
+                        }
+                        validLength += MARKER_SIZE;
+                    } else {
+                        throw new IOException("Unknown record type " + type);
+                    }
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                } catch (EOFException e) {
+                    // A record cut short by process death; for an answer, the tap never returned.
+                    truncated = true;
+                    break;
+                }
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing journaled yet.
+            return;
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable journal: " + e.getMessage());
+            pending.clear();
+            file.delete();
+            return;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        if (pending.isEmpty()) {
+            file.delete();
+            return;
+        }
+        if (truncated) {
+            // Cut the partial record so later appends line up with record boundaries again.
+            RandomAccessFile raf = null;
+            try {
+                raf = new RandomAccessFile(file, "rw");
+                raf.setLength(validLength);
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to trim journal: " + e.getMessage());
+            } finally {
+                if (raf != null) {
+                    try {
+                        raf.close();
+                    } catch (IOException ignored) {
+                    }
+                }
+            }
+        }
+        int inDoubt = 0;
+        for (Entry entry : pending) {
+            if (entry.inDoubt) inDoubt++;
+        }
+        Log.i(TAG, "Resuming " + pending.size() + " unsubmitted answers, " + inDoubt + " interrupted mid-submission");
+    }
+}
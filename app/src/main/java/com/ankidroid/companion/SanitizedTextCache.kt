@@ -0,0 +1,77 @@
+package com.ankidroid.companion
+
+import java.util.LinkedHashMap
+
+/**
+ * Process-wide LRU of sanitized card text. The same card is rendered by every widget update and every
+ * notification rebuild; with this cache each field is sanitized once per content, and length variants are
+ * ellipsized views of the cached text.
+ */
+object SanitizedTextCache {
+    enum class Field { QUESTION, ANSWER }
+
+    private enum class Target { WIDGET, NOTIFICATION }
+
+    private const val MAX_ENTRIES = 128
+
+    private data class Key(val noteId: Long, val ord: Int, val contentHash: Int, val field: Field, val target: Target)
+
+    // The source is kept to rule out hash collisions; CardInfo already holds the same string.
+    private class Entry(val source: String, val text: String)
+
+    private val entries = object : LinkedHashMap<Key, Entry>(MAX_ENTRIES, 0.75f, true) {
+        override fun removeEldestEntry(eldest: MutableMap.MutableEntry<Key, Entry>?): Boolean = size > MAX_ENTRIES
+    }
+    private var hits = 0L
+    private var misses = 0L
+
+    fun widgetText(card: CardInfo, field: Field): CharSequence = lookup(card, field, Target.WIDGET)
+
+    fun notificationText(card: CardInfo, field: Field, maxChars: Int): String =
+        ellipsize(lookup(card, field, Target.NOTIFICATION), maxChars)
+
+    @Synchronized
+    fun hitRate(): Float {
+        val total = hits + misses
+        return if (total == 0L) 0f else hits.toFloat() / total
+    }
+
+    @Synchronized
+    fun stats(): String = "size=${entries.size} hits=$hits misses=$misses hitRate=${"%.2f".format(hitRate())}"
+
+    @Synchronized
+    fun clear() {
+        entries.clear()
+    }
+
+    private fun lookup(card: CardInfo, field: Field, target: Target): String {
+        val content = card.content()
+        val raw = if (field == Field.QUESTION) content.rawQuestion else content.rawAnswer
+        val fallback = if (field == Field.QUESTION) content.simpleQuestion else content.simpleAnswer
+        val source = when {
+            !raw.isNullOrBlank() -> raw
+            !fallback.isNullOrBlank() -> fallback
+            else -> return ""
+        }
+        val key = Key(card.noteID, card.cardOrd, source.hashCode(), field, target)
+        synchronized(this) {
+            val entry = entries[key]
+            if (entry != null && entry.source == source) {
+                hits++
+                return entry.text
+            }
+            misses++
+        }
+        // Sanitize outside the lock; a concurrent miss on the same key just computes the same text twice.
+        val text = if (target == Target.WIDGET) HtmlSanitizer.widgetText(source) else HtmlSanitizer.notificationText(source)
+        synchronized(this) {
+            entries[key] = Entry(source, text)
+        }
+        return text
+    }
+
+    fun ellipsize(text: String, max: Int): String {
+        if (text.length <= max) return text
+        return text.substring(0, max).trimEnd() + "…"
+    }
+}
@@ -0,0 +1,172 @@
+package com.ankidroid.companion;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Process-wide holder of the current {@link StoredState}. Reads are a plain memory access; writes swap an
+ * immutable snapshot and persist it as a fixed-size binary record in the background.
+ */
+final class StateStore {
+    private static final String TAG = "StateStore";
+    private static final String FILE_NAME = "current_state.bin";
+    private static final int FORMAT_VERSION = 1;
+    private static final String PERSIST_LANE = "state-store";
+    // Pre-binary storage: a JSON string in SharedPreferences, migrated on first load.
+    private static final String LEGACY_STATE_DB = "com.ichi2.anki.api.state";
+    private static final String LEGACY_KEY_CURRENT_STATE = "CURRENT_STATE";
+
+    private static StateStore sInstance;
+
+    private final Context context;
+    private final AtomicFile file;
+    private final AtomicReference<StoredState> current = new AtomicReference<>();
+    private final AtomicBoolean persistPending = new AtomicBoolean(false);
+
+    private StateStore(Context context) {
+        this.context = context.getApplicationContext();
+        this.file = new AtomicFile(new File(this.context.getFilesDir(), FILE_NAME));
+        current.set(load());
+    }
+
+    static synchronized StateStore getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new StateStore(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the current state, or null if no deck was ever selected
+     */
+    StoredState get() {
+        return current.get();
+    }
+
+    /**
+     * Show the given card (or no card, when null) for the deck.
+     */
+    void set(long deckId, CardInfo card) {
+        current.set(toState(deckId, card));
+        persistAsync();
+    }
+
+    /**
+     * Move from the expected card to the next one only if the expected card is still the current one, so
+     * two answers racing for the same card cannot both advance the state.
+     * @return true if the state was updated
+     */
+    boolean compareAndSetCard(long deckId, long expectedNoteId, int expectedOrd, CardInfo next) {
+        StoredState replacement = toState(deckId, next);
+        while (true) {
+            StoredState expected = current.get();
+            if (expected == null || expected.deckId != deckId || !expected.isCard(expectedNoteId, expectedOrd)) {
+                return false;
+            }
+            if (current.compareAndSet(expected, replacement)) {
+                persistAsync();
+                return true;
+            }
+        }
+    }
+
+    private static StoredState toState(long deckId, CardInfo card) {
+        if (card != null) {
+            return new StoredState(deckId, card.noteID, card.cardOrd, card.cardStartTime);
+        }
+        // Only deck was updated; clear card-related fields.
+        return new StoredState(deckId, -1, -1, 0);
+    }
+
+    private void persistAsync() {
+        // Several quick updates collapse into one write of whatever is current when the task runs.
+        if (!persistPending.compareAndSet(false, true)) {
+            return;
+        }
+        BackgroundExecutor.execute(PERSIST_LANE, () -> {
+            persistPending.set(false);
+            save(current.get());
+        });
+    }
+
+    private StoredState load() {
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() == FORMAT_VERSION) {
+                long deckId = in.readLong();
+                long noteId = in.readLong();
+                int ord = in.readInt();
+                long startTime = in.readLong();
+                return new StoredState(deckId, noteId, ord, startTime);
+            }
+        } catch (FileNotFoundException e) {
+            return migrateLegacy();
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable state: " + e.getMessage());
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+        return null;
+    }
+
+    private StoredState migrateLegacy() {
+        SharedPreferences legacy = context.getSharedPreferences(LEGACY_STATE_DB, Context.MODE_PRIVATE);
+        String message = legacy.getString(LEGACY_KEY_CURRENT_STATE, "");
+        if (message == null || message.isEmpty()) {
+            return null;
+        }
+        StoredState state = null;
+        try {
+            JSONObject json = new JSONObject(message);
+            state = new StoredState(json.getLong("deck_id"), json.getLong("note_id"),
+                    json.getInt("card_ord"), json.getLong("start_time"));
+            save(state);
+        } catch (JSONException e) {
+            Log.w(TAG, "Dropping unreadable legacy state: " + e.getMessage());
+        }
+        legacy.edit().remove(LEGACY_KEY_CURRENT_STATE).apply();
+        return state;
+    }
+
+    private void save(StoredState state) {
+        if (state == null) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(FORMAT_VERSION);
+            data.writeLong(state.deckId);
+            data.writeLong(state.noteID);
+            data.writeInt(state.cardOrd);
+            data.writeLong(state.cardStartTime);
+            data.flush();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to persist state: " + e.getMessage());
+            if (out != null) file.failWrite(out);
+        }
+    }
+}
@@ -1,8 +1,27 @@
 package com.ankidroid.companion;
 
+/**
+ * Immutable snapshot of the deck and card currently shown. Obtained from {@link StateStore}.
+ */
 public class StoredState {
-    long deckId;
-    int cardOrd;
-    long noteID;
-    long cardStartTime;
+    final long deckId;
+    final int cardOrd;
+    final long noteID;
+    final long cardStartTime;
+
+    StoredState(long deckId, long noteID, int cardOrd, long cardStartTime) {
+        this.deckId = deckId;
+        this.noteID = noteID;
+        this.cardOrd = cardOrd;
+        this.cardStartTime = cardStartTime;
+    }
+
+    boolean isCard(long noteId, int ord) {
+        return noteID == noteId && cardOrd == ord;
+    }
+
+    @Override
+    public String toString() {
+        return "StoredState{deckId=" + deckId + ", noteID=" + noteID + ", cardOrd=" + cardOrd + "}";
+    }
 }
@@ -0,0 +1,86 @@
+package com.ankidroid.companion;
+
+import java.util.Set;
+
+/**
+ * Compiled form of the stored template filter. (modelId, ord) keys are packed into one long each and kept in
+ * a {@link LongHashSet}; legacy ord-only keys become a bitmask. {@link #matches} is an O(1) lookup that
+ * allocates nothing, so it can sit in the inner loop of every fetch path. Immutable once built.
+ */
+final class TemplateFilter {
+    static final TemplateFilter ALL = new TemplateFilter(new LongHashSet(), 0L, null, 0);
+
+    // Model ids are creation timestamps in ms (about 41 bits), which leaves the low 16 bits for the ord.
+    private static final int ORD_BITS = 16;
+    private static final int MAX_ORD = (1 << ORD_BITS) - 1;
+
+    private final LongHashSet exactKeys;
+    private final long legacyOrdMask;
+    // Legacy ords past the bitmask; null in practice, as notetypes rarely have 64 templates.
+    private final LongHashSet legacyHighOrds;
+    private final int size;
+
+    private TemplateFilter(LongHashSet exactKeys, long legacyOrdMask, LongHashSet legacyHighOrds, int size) {
+        this.exactKeys = exactKeys;
+        this.legacyOrdMask = legacyOrdMask;
+        this.legacyHighOrds = legacyHighOrds;
+        this.size = size;
+    }
+
+    static TemplateFilter compile(Set<TemplateKey> keys) {
+        if (keys == null || keys.isEmpty()) {
+            return ALL;
+        }
+        LongHashSet exactKeys = new LongHashSet(keys.size());
+        long legacyOrdMask = 0L;
+        LongHashSet legacyHighOrds = null;
+        int size = 0;
+        for (TemplateKey key : keys) {
+            if (key.ord < 0 || key.ord > MAX_ORD) continue;
+            if (key.modelId >= 0) {
+                exactKeys.add(pack(key.modelId, key.ord));
+            } else if (key.ord < 64) {
+                // backward compatibility: match on ord only
+                legacyOrdMask |= 1L << key.ord;
+            } else {
+                if (legacyHighOrds == null) legacyHighOrds = new LongHashSet();
+                legacyHighOrds.add(key.ord);
+            }
+            size++;
+        }
+        return size == 0 ? ALL : new TemplateFilter(exactKeys, legacyOrdMask, legacyHighOrds, size);
+    }
+
+    /**
+     * @return true if the filter is empty, i.e. every template is allowed
+     */
+    boolean matchesAll() {
+        return size == 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean matches(long modelId, int ord) {
+        if (size == 0) return true;
+        if (ord < 0 || ord > MAX_ORD) return false;
+        if (ord < 64) {
+            if ((legacyOrdMask & (1L << ord)) != 0) return true;
+        } else if (legacyHighOrds != null && legacyHighOrds.contains(ord)) {
+            return true;
+        }
+        return modelId >= 0 && exactKeys.contains(pack(modelId, ord));
+    }
+
+    /**
+     * Whether the filter names this exact template; legacy ord-only keys are not considered.
+     */
+    boolean containsExact(long modelId, int ord) {
+        return modelId >= 0 && ord >= 0 && ord <= MAX_ORD && exactKeys.contains(pack(modelId, ord));
+    }
+
+    private static long pack(long modelId, int ord) {
+        return (modelId << ORD_BITS) | ord;
+    }
+}
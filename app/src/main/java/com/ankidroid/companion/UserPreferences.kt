@@ -28,27 +28,103 @@ object UserPreferences {
         RANDOM_QUEUE, // random among queue (if enough), else deck roam
         RANDOM_ROAM   // always deck roam
     }
+
+    /**
+     * Every preference parsed and validated once. Getters read the current snapshot; any change to the
+     * preferences file drops it and the next read builds a new one.
+     */
+    private class Snapshot(
+        val fieldMode: FieldMode,
+        val templateFilter: Set<TemplateKey>,
+        val compiledTemplateFilter: TemplateFilter,
+        val contentMaxLines: Int,
+        val widgetIntervalMinutes: Int,
+        val notificationsEnabled: Boolean,
+        val cardSourceMode: CardSourceMode,
+        val randomCacheSize: Int,
+        val randomQueueThreshold: Int,
+        val randomSampleLimit: Int,
+        val mediaTreeUri: String?
+    )
+
+    // Published and dropped under the object's lock, so a snapshot loaded while a write lands is dropped
+    // by that write's invalidate() rather than outliving it.
+    @Volatile
+    private var snapshot: Snapshot? = null
+
+    // SharedPreferences keeps listeners weakly, so hold on to it here.
+    private val changeListener = SharedPreferences.OnSharedPreferenceChangeListener { _, _ -> invalidate() }
+    private var listenerRegistered = false
+
     private fun prefs(context: Context): SharedPreferences =
         context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE)
 
-    fun saveFieldMode(context: Context, mode: FieldMode) {
-        prefs(context).edit().putString(KEY_FIELD_MODE, mode.name).apply()
+    private fun snapshot(context: Context): Snapshot {
+        snapshot?.let { return it }
+        synchronized(this) {
+            snapshot?.let { return it }
+            val prefs = prefs(context)
+            if (!listenerRegistered) {
+                prefs.registerOnSharedPreferenceChangeListener(changeListener)
+                listenerRegistered = true
+            }
+            val loaded = load(prefs)
+            snapshot = loaded
+            return loaded
+        }
     }
 
-    fun getFieldMode(context: Context): FieldMode {
-        val stored = prefs(context).getString(KEY_FIELD_MODE, null)
-        return stored?.let {
-            runCatching { FieldMode.valueOf(it) }.getOrNull()
-        } ?: FieldMode.BOTH
+    private fun invalidate() {
+        synchronized(this) {
+            snapshot = null
+        }
+    }
+
+    // The listener runs on the main thread, possibly after the writer returns; drop the snapshot right away
+    // so a read following a save on any thread sees the new value.
+    private fun edit(context: Context, block: SharedPreferences.Editor.() -> Unit) {
+        prefs(context).edit().apply(block).apply()
+        invalidate()
+    }
+
+    private fun load(prefs: SharedPreferences): Snapshot {
+        val templateFilter = parseTemplateFilter(prefs.getStringSet(KEY_TEMPLATE_FILTER, emptySet()) ?: emptySet())
+        return Snapshot(
+            fieldMode = prefs.getString(KEY_FIELD_MODE, null)?.let {
+                runCatching { FieldMode.valueOf(it) }.getOrNull()
+            } ?: FieldMode.BOTH,
+            templateFilter = templateFilter,
+            compiledTemplateFilter = TemplateFilter.compile(templateFilter),
+            contentMaxLines = prefs.getInt(KEY_MAX_LINES, -1).let { if (it in 1..50) it else 4 },
+            widgetIntervalMinutes = prefs.getInt(KEY_WIDGET_INTERVAL_MIN, -1).let { if (it in 15..720) it else 60 },
+            notificationsEnabled = prefs.getBoolean(KEY_NOTIFICATIONS_ENABLED, true),
+            cardSourceMode = loadCardSourceMode(prefs),
+            randomCacheSize = prefs.getInt(KEY_RANDOM_CACHE_SIZE, -1).let { if (it in 3..50) it else 5 },
+            randomQueueThreshold = prefs.getInt(KEY_RANDOM_QUEUE_THRESHOLD, -1).let { if (it in 1..50) it else 3 },
+            randomSampleLimit = prefs.getInt(KEY_RANDOM_SAMPLE_LIMIT, -1).let { if (it in 10..500) it else 80 },
+            mediaTreeUri = prefs.getString(KEY_MEDIA_TREE_URI, null)
+        )
+    }
+
+    fun saveFieldMode(context: Context, mode: FieldMode) {
+        edit(context) { putString(KEY_FIELD_MODE, mode.name) }
     }
 
+    fun getFieldMode(context: Context): FieldMode = snapshot(context).fieldMode
+
     fun saveTemplateFilter(context: Context, allowedTemplates: Set<TemplateKey>) {
         val asStrings = allowedTemplates.map { "${it.modelId}:${it.ord}" }.toSet()
-        prefs(context).edit().putStringSet(KEY_TEMPLATE_FILTER, asStrings).apply()
+        edit(context) { putStringSet(KEY_TEMPLATE_FILTER, asStrings) }
     }
 
-    fun getTemplateFilter(context: Context): Set<TemplateKey> {
-        val stored = prefs(context).getStringSet(KEY_TEMPLATE_FILTER, emptySet()) ?: emptySet()
+    fun getTemplateFilter(context: Context): Set<TemplateKey> = snapshot(context).templateFilter
+
+    /**
+     * The template filter compiled for matching; one shared instance until the filter changes.
+     */
+    fun getCompiledTemplateFilter(context: Context): TemplateFilter = snapshot(context).compiledTemplateFilter
+
+    private fun parseTemplateFilter(stored: Set<String>): Set<TemplateKey> {
         val parsed = stored.mapNotNull { token ->
             if (token.contains(":")) {
                 val parts = token.split(":")
@@ -69,41 +145,35 @@ object UserPreferences {
 
     fun saveContentMaxLines(context: Context, lines: Int) {
         val value = lines.coerceIn(1, 50)
-        prefs(context).edit().putInt(KEY_MAX_LINES, value).apply()
+        edit(context) { putInt(KEY_MAX_LINES, value) }
     }
 
-    fun getContentMaxLines(context: Context): Int {
-        val stored = prefs(context).getInt(KEY_MAX_LINES, -1)
-        return if (stored in 1..50) stored else 4
-    }
+    fun getContentMaxLines(context: Context): Int = snapshot(context).contentMaxLines
 
     fun saveWidgetIntervalMinutes(context: Context, minutes: Int) {
         val clamped = minutes.coerceIn(15, 720)
-        prefs(context).edit().putInt(KEY_WIDGET_INTERVAL_MIN, clamped).apply()
+        edit(context) { putInt(KEY_WIDGET_INTERVAL_MIN, clamped) }
     }
 
-    fun getWidgetIntervalMinutes(context: Context): Int {
-        val stored = prefs(context).getInt(KEY_WIDGET_INTERVAL_MIN, -1)
-        return if (stored in 15..720) stored else 60
-    }
+    fun getWidgetIntervalMinutes(context: Context): Int = snapshot(context).widgetIntervalMinutes
 
     fun saveNotificationsEnabled(context: Context, enabled: Boolean) {
-        prefs(context).edit().putBoolean(KEY_NOTIFICATIONS_ENABLED, enabled).apply()
+        edit(context) { putBoolean(KEY_NOTIFICATIONS_ENABLED, enabled) }
     }
 
-    fun getNotificationsEnabled(context: Context): Boolean {
-        return prefs(context).getBoolean(KEY_NOTIFICATIONS_ENABLED, true)
-    }
+    fun getNotificationsEnabled(context: Context): Boolean = snapshot(context).notificationsEnabled
 
     fun saveCardSourceMode(context: Context, mode: CardSourceMode) {
-        prefs(context).edit().putString(KEY_CARD_SOURCE_MODE, mode.name).apply()
+        edit(context) { putString(KEY_CARD_SOURCE_MODE, mode.name) }
     }
 
-    fun getCardSourceMode(context: Context): CardSourceMode {
-        val stored = prefs(context).getString(KEY_CARD_SOURCE_MODE, null)
+    fun getCardSourceMode(context: Context): CardSourceMode = snapshot(context).cardSourceMode
+
+    private fun loadCardSourceMode(prefs: SharedPreferences): CardSourceMode {
+        val stored = prefs.getString(KEY_CARD_SOURCE_MODE, null)
         // Legacy migration: map old widget mode to new modes.
         if (stored == null) {
-            val legacy = prefs(context).getString(KEY_WIDGET_MODE, null)
+            val legacy = prefs.getString(KEY_WIDGET_MODE, null)
             return legacy?.let {
                 runCatching { CardSourceMode.valueOf(it) }.getOrNull()
             } ?: CardSourceMode.REVIEW
@@ -113,39 +183,28 @@ object UserPreferences {
 
     fun saveRandomCacheSize(context: Context, size: Int) {
         val clamped = size.coerceIn(3, 50)
-        prefs(context).edit().putInt(KEY_RANDOM_CACHE_SIZE, clamped).apply()
+        edit(context) { putInt(KEY_RANDOM_CACHE_SIZE, clamped) }
     }
 
-    fun getRandomCacheSize(context: Context): Int {
-        val stored = prefs(context).getInt(KEY_RANDOM_CACHE_SIZE, -1)
-        return if (stored in 3..50) stored else 5
-    }
+    fun getRandomCacheSize(context: Context): Int = snapshot(context).randomCacheSize
 
     fun saveRandomQueueThreshold(context: Context, threshold: Int) {
         val clamped = threshold.coerceIn(1, 50)
-        prefs(context).edit().putInt(KEY_RANDOM_QUEUE_THRESHOLD, clamped).apply()
+        edit(context) { putInt(KEY_RANDOM_QUEUE_THRESHOLD, clamped) }
     }
 
-    fun getRandomQueueThreshold(context: Context): Int {
-        val stored = prefs(context).getInt(KEY_RANDOM_QUEUE_THRESHOLD, -1)
-        return if (stored in 1..50) stored else 3
-    }
+    fun getRandomQueueThreshold(context: Context): Int = snapshot(context).randomQueueThreshold
 
     fun saveRandomSampleLimit(context: Context, limit: Int) {
         val clamped = limit.coerceIn(10, 500)
-        prefs(context).edit().putInt(KEY_RANDOM_SAMPLE_LIMIT, clamped).apply()
+        edit(context) { putInt(KEY_RANDOM_SAMPLE_LIMIT, clamped) }
     }
 
-    fun getRandomSampleLimit(context: Context): Int {
-        val stored = prefs(context).getInt(KEY_RANDOM_SAMPLE_LIMIT, -1)
-        return if (stored in 10..500) stored else 80
-    }
+    fun getRandomSampleLimit(context: Context): Int = snapshot(context).randomSampleLimit
 
     fun saveMediaTreeUri(context: Context, uri: String) {
-        prefs(context).edit().putString(KEY_MEDIA_TREE_URI, uri).apply()
+        edit(context) { putString(KEY_MEDIA_TREE_URI, uri) }
     }
 
-    fun getMediaTreeUri(context: Context): String? {
-        return prefs(context).getString(KEY_MEDIA_TREE_URI, null)
-    }
+    fun getMediaTreeUri(context: Context): String? = snapshot(context).mediaTreeUri
 }
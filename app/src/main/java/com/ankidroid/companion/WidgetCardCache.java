@@ -0,0 +1,247 @@
+package com.ankidroid.companion;
+
+import android.content.Context;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import com.ankidroid.companion.UserPreferences.CardSourceMode;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * On-disk copy of the cards the widget last rendered, keyed by deck and card source mode, so a widget
+ * refresh after process death can render without waiting for AnkiDroid. Entries hold the card ids and
+ * the raw content of cards that had it loaded; the first card of an entry is the one on screen, and the
+ * others load their content lazily when shown.
+ */
+final class WidgetCardCache {
+    private static final String TAG = "WidgetCardCache";
+    private static final String FILE_NAME = "widget_card_cache.bin";
+    private static final int FORMAT_VERSION = 2;
+    private static final int MAX_ENTRIES = 6;
+    // The shown card plus a few upcoming random cards; enough for instant Next taps after a cold start.
+    private static final int MAX_CARDS_PER_ENTRY = 11;
+
+    private static WidgetCardCache sInstance;
+
+    private final AtomicFile file;
+    private final CardInfo.ContentLoader contentLoader;
+    private final LinkedHashMap<String, List<CardInfo>> entries = new LinkedHashMap<>(8, 0.75f, true);
+    private boolean loaded = false;
+
+    private WidgetCardCache(Context context) {
+        file = new AtomicFile(new File(context.getApplicationContext().getFilesDir(), FILE_NAME));
+        contentLoader = CardContentCache.getInstance(context);
+    }
+
+    static synchronized WidgetCardCache getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WidgetCardCache(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * @return the cached cards for the deck/mode (current card first), or an empty list
+     */
+    synchronized List<CardInfo> get(long deckId, CardSourceMode mode) {
+        ensureLoaded();
+        List<CardInfo> cards = entries.get(key(deckId, mode));
+        if (cards == null) {
+            return Collections.emptyList();
+        }
+        // Hand out copies with a fresh start time; the answer timer starts when the card is shown again.
+        long now = System.currentTimeMillis();
+        List<CardInfo> copies = new ArrayList<>(cards.size());
+        for (CardInfo card : cards) {
+            CardInfo copy = copyOf(card);
+            copy.cardStartTime = now;
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    CardInfo getCurrent(long deckId, CardSourceMode mode) {
+        List<CardInfo> cards = get(deckId, mode);
+        return cards.isEmpty() ? null : cards.get(0);
+    }
+
+    /**
+     * Remember the cards for the deck/mode; writes to disk only when the card ids changed.
+     */
+    synchronized void put(long deckId, CardSourceMode mode, List<CardInfo> cards) {
+        ensureLoaded();
+        String key = key(deckId, mode);
+        List<CardInfo> trimmed = new ArrayList<>(Math.min(cards.size(), MAX_CARDS_PER_ENTRY));
+        for (CardInfo card : cards) {
+            if (trimmed.size() >= MAX_CARDS_PER_ENTRY) break;
+            trimmed.add(copyOf(card));
+        }
+        if (sameCards(entries.get(key), trimmed)) {
+            return;
+        }
+        if (trimmed.isEmpty()) {
+            entries.remove(key);
+        } else {
+            entries.put(key, trimmed);
+            Iterator<String> eldest = entries.keySet().iterator();
+            while (entries.size() > MAX_ENTRIES && eldest.hasNext()) {
+                eldest.next();
+                eldest.remove();
+            }
+        }
+        save();
+    }
+
+    private static String key(long deckId, CardSourceMode mode) {
+        return deckId + ":" + mode.name();
+    }
+
+    /**
+     * Same cards with the same content; a card whose content arrived since the last save counts as changed,
+     * so lazily loaded content still reaches the disk.
+     */
+    private static boolean sameCards(List<CardInfo> a, List<CardInfo> b) {
+        if (a == null || a.size() != b.size()) return false;
+        for (int i = 0; i < a.size(); i++) {
+            if (a.get(i).noteID != b.get(i).noteID || a.get(i).cardOrd != b.get(i).cardOrd) return false;
+            if (!sameContent(a.get(i).loadedContent(), b.get(i).loadedContent())) return false;
+        }
+        return true;
+    }
+
+    private static boolean sameContent(CardContent a, CardContent b) {
+        if (a == b) return true;
+        if (a == null || b == null) return false;
+        // Any field may be null when the provider leaves its column out; all four are persisted.
+        return Objects.equals(a.rawQuestion, b.rawQuestion) && Objects.equals(a.rawAnswer, b.rawAnswer)
+                && Objects.equals(a.simpleQuestion, b.simpleQuestion) && Objects.equals(a.simpleAnswer, b.simpleAnswer);
+    }
+
+    private CardInfo copyOf(CardInfo card) {
+        CardInfo copy = new CardInfo();
+        copy.noteID = card.noteID;
+        copy.cardOrd = card.cardOrd;
+        copy.modelId = card.modelId;
+        copy.buttonCount = card.buttonCount;
+        copy.cardStartTime = card.cardStartTime;
+        CardContent content = card.loadedContent();
+        if (content != null) {
+            copy.setContent(content);
+        } else {
+            copy.setContentLoader(contentLoader);
+        }
+        return copy;
+    }
+
+    private void ensureLoaded() {
+        if (loaded) return;
+        loaded = true;
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(file.openRead()));
+            if (in.readInt() != FORMAT_VERSION) {
+                return;
+            }
+            int entryCount = in.readInt();
+            for (int e = 0; e < entryCount; e++) {
+                String key = readString(in);
+                int cardCount = in.readInt();
+                List<CardInfo> cards = new ArrayList<>(cardCount);
+                for (int c = 0; c < cardCount; c++) {
+                    CardInfo card = new CardInfo();
+                    card.noteID = in.readLong();
+                    card.cardOrd = in.readInt();
+                    card.modelId = in.readLong();
+                    card.buttonCount = in.readInt();
+                    if (in.readBoolean()) {
+                        card.setContent(new CardContent(readString(in), readString(in), readString(in), readString(in)));
+                    }
+                    cards.add(card);
+                }
+                entries.put(key, cards);
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing rendered yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Discarding unreadable cache: " + e.getMessage());
+            entries.clear();
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (IOException ignored) {
+                }
+            }
+        }
+    }
+
+    private void save() {
+        FileOutputStream out = null;
+        try {
+            out = file.startWrite();
+            DataOutputStream data = new DataOutputStream(new BufferedOutputStream(out));
+            data.writeInt(FORMAT_VERSION);
+            data.writeInt(entries.size());
+            for (Map.Entry<String, List<CardInfo>> entry : entries.entrySet()) {
+                writeString(data, entry.getKey());
+                data.writeInt(entry.getValue().size());
+                for (CardInfo card : entry.getValue()) {
+                    data.writeLong(card.noteID);
+                    data.writeInt(card.cardOrd);
+                    data.writeLong(card.modelId);
+                    data.writeInt(card.buttonCount);
+                    CardContent content = card.loadedContent();
+                    data.writeBoolean(content != null);
+                    if (content != null) {
+                        writeString(data, content.rawQuestion);
+                        writeString(data, content.rawAnswer);
+                        writeString(data, content.simpleQuestion);
+                        writeString(data, content.simpleAnswer);
+                    }
+                }
+            }
+            data.flush();
+            file.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to persist cache: " + e.getMessage());
+            if (out != null) file.failWrite(out);
+        }
+    }
+
+    // Length-prefixed UTF-8; writeUTF caps out at 64 KB, which long dictionary cards can exceed.
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,127 @@
+package com.ankidroid.companion;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.util.Log;
+
+import com.ankidroid.companion.UserPreferences.CardSourceMode;
+import com.ichi2.anki.FlashCardsContract;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Refreshes the widget when AnkiDroid's data changes instead of waiting for the periodic job. Content
+ * observers on the review queue and on notes feed a debounced check: the widget is refreshed when the card
+ * REVIEW mode would show is no longer the one on screen, or when a note was edited. Observers live as long
+ * as the process; the periodic job remains as a backstop for changes made while it was not running.
+ */
+final class WidgetChangeMonitor {
+    private static final String TAG = "WidgetChangeMonitor";
+    private static final String LANE = "widget-monitor";
+    // Answering in AnkiDroid fires several notifications in a row; check once they settle.
+    private static final long DEBOUNCE_MS = 1500;
+
+    private static WidgetChangeMonitor sInstance;
+
+    private final Context context;
+    private final AtomicLong changeSeq = new AtomicLong();
+    // Set by note changes: the shown card's text may be stale even if the queue did not move.
+    private final AtomicBoolean notesChanged = new AtomicBoolean();
+    private final ContentObserver observer = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange) {
+            onChange(selfChange, null);
+        }
+
+        @Override
+        public void onChange(boolean selfChange, Uri uri) {
+            if (uri == null || uri.toString().startsWith(FlashCardsContract.Note.CONTENT_URI.toString())) {
+                notesChanged.set(true);
+            }
+            onContentChanged();
+        }
+    };
+    private boolean started = false;
+
+    private WidgetChangeMonitor(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    static synchronized WidgetChangeMonitor getInstance(Context context) {
+        if (sInstance == null) {
+            sInstance = new WidgetChangeMonitor(context);
+        }
+        return sInstance;
+    }
+
+    /**
+     * Register the observers; no-op if already running.
+     */
+    synchronized void start() {
+        if (started) return;
+        ContentResolver resolver = context.getContentResolver();
+        try {
+            resolver.registerContentObserver(FlashCardsContract.ReviewInfo.CONTENT_URI, true, observer);
+            resolver.registerContentObserver(FlashCardsContract.Note.CONTENT_URI, true, observer);
+            started = true;
+        } catch (SecurityException e) {
+            // AnkiDroid missing or not yet granted; the periodic job still refreshes.
+            Log.w(TAG, "Observers not registered: " + e.getMessage());
+            resolver.unregisterContentObserver(observer);
+        }
+    }
+
+    synchronized void stop() {
+        if (!started) return;
+        context.getContentResolver().unregisterContentObserver(observer);
+        started = false;
+        changeSeq.incrementAndGet();
+    }
+
+    private void onContentChanged() {
+        final long seq = changeSeq.incrementAndGet();
+        BackgroundExecutor.executeDelayed(LANE, () -> {
+            // A later change has its own check queued.
+            if (changeSeq.get() == seq) {
+                checkShownCard();
+            }
+        }, DEBOUNCE_MS);
+    }
+
+    private void checkShownCard() {
+        boolean edited = notesChanged.getAndSet(false);
+        // Random modes pick their own cards and rotate on refresh; the periodic job serves them.
+        if (UserPreferences.INSTANCE.getCardSourceMode(context) != CardSourceMode.REVIEW) {
+            return;
+        }
+        AnkiDroidHelper helper = new AnkiDroidHelper(context);
+        StoredState state = helper.getStoredState();
+        if (state == null || state.deckId <= 0) {
+            return;
+        }
+        // Until journaled answers reach AnkiDroid the queue trails the shown card; submitting them notifies again.
+        if (ReviewJournal.getInstance(context).hasPending(state.deckId)) {
+            return;
+        }
+        CardInfo top;
+        try {
+            top = helper.peekTopScheduledCard(state.deckId);
+        } catch (RuntimeException e) {
+            // AnkiDroid went away; its next change notifies again.
+            Log.w(TAG, "Review queue unavailable: " + e.getMessage());
+            return;
+        }
+        long topNoteId = top != null ? top.noteID : -1;
+        int topOrd = top != null ? top.cardOrd : -1;
+        if (!edited && topNoteId == state.noteID && topOrd == state.cardOrd) {
+            return;
+        }
+        Log.i(TAG, "AnkiDroid changed outside the widget; refreshing. edited=" + edited + " top noteId=" + topNoteId + " ord=" + topOrd + " shown=" + state);
+        new CompanionWidgetProvider().onReceive(context,
+                new Intent(CompanionWidgetProvider.ACTION_REFRESH).setClass(context, CompanionWidgetProvider.class));
+    }
+}
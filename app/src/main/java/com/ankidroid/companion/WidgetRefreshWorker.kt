@@ -6,12 +6,9 @@ import androidx.work.WorkerParameters
 
 class WidgetRefreshWorker(appContext: Context, params: WorkerParameters) : Worker(appContext, params) {
     override fun doWork(): Result {
-        CompanionWidgetProvider().onReceive(
-            applicationContext,
-            android.content.Intent(CompanionWidgetProvider.ACTION_REFRESH).apply {
-                setClass(applicationContext, CompanionWidgetProvider::class.java)
-            }
-        )
+        // Wait for the refresh itself: calling onReceive directly has no goAsync() to keep the process
+        // alive, and WorkManager may let it die once doWork returns.
+        CompanionWidgetProvider.refreshBlocking(applicationContext)
         return Result.success()
     }
 }
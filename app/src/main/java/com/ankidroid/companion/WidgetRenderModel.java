@@ -0,0 +1,38 @@
+package com.ankidroid.companion;
+
+import com.ankidroid.companion.UserPreferences.CardSourceMode;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything a widget refresh shows, resolved once and shared by every widget instance. Only the button
+ * labels depend on the instance (its width), so they are kept out of {@link #contentKey}: two models with
+ * equal content keys render the same card area, letting the widget skip or narrow the push to the launcher.
+ */
+final class WidgetRenderModel {
+    final CardInfo card;
+    final String deckName;
+    final FieldMode fieldMode;
+    final CardSourceMode sourceMode;
+    // Sanitized card text; null when there is no card.
+    final CharSequence front;
+    final CharSequence back;
+    // Mode label under the card; null hides it.
+    final String modeLabel;
+    final List<Object> contentKey;
+
+    WidgetRenderModel(CardInfo card, String deckName, FieldMode fieldMode, CardSourceMode sourceMode,
+                      CharSequence front, CharSequence back, String modeLabel) {
+        this.card = card;
+        this.deckName = deckName;
+        this.fieldMode = fieldMode;
+        this.sourceMode = sourceMode;
+        this.front = front;
+        this.back = back;
+        this.modeLabel = modeLabel;
+        // The text actually shown, which also covers cards rendered from the simple-field fallback.
+        this.contentKey = Arrays.asList(card != null, deckName, fieldMode, sourceMode, modeLabel,
+                front != null ? front.toString() : null, back != null ? back.toString() : null);
+    }
+}
@@ -0,0 +1,32 @@
+package com.ankidroid.companion;
+
+/**
+ * Plain string helpers for laying out card text in the widget. Kept free of Android types so the
+ * benchmark module can compile them on a plain JVM.
+ */
+final class WidgetText {
+    // Rough characters per rendered line on a default-size widget.
+    private static final int CHARS_PER_LINE = 25;
+
+    private WidgetText() {
+    }
+
+    /**
+     * Rough number of rendered lines: explicit line breaks, or wrapped length, whichever is larger.
+     */
+    static int estimateLines(CharSequence text) {
+        if (text == null) return 0;
+        int length = text.length();
+        int newlines = 0;
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) == '\n') newlines++;
+        }
+        return Math.max(newlines + 1, length / CHARS_PER_LINE + 1);
+    }
+
+    static String truncate(CharSequence text, int max) {
+        if (text == null) return "";
+        if (text.length() <= max) return text.toString();
+        return text.subSequence(0, max) + "…";
+    }
+}
@@ -0,0 +1,155 @@
+package com.ankidroid.companion
+
+import android.app.Application
+import androidx.test.core.app.ApplicationProvider
+import com.ichi2.anki.FlashCardsContract
+import com.ichi2.anki.api.AddContentApi
+import org.junit.After
+import org.junit.Assert.assertFalse
+import org.junit.Assert.assertNotNull
+import org.junit.Assert.assertTrue
+import org.junit.Before
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.Robolectric
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.Shadows.shadowOf
+import org.robolectric.annotation.Config
+
+/**
+ * Query-count and latency benchmark for AnkiDroidHelper against [FakeFlashCardsProvider].
+ *
+ * It is left out of the regular unit test run; pass -Pcompanion.benchmark to include it. The collection
+ * size defaults to a quick run; add -Pcompanion.benchmark.notes=100000 (forwarded as a system property)
+ * for a full-size deck. Query budgets are asserted on warm runs so extra provider round-trips fail the
+ * build; latencies are only reported. The caches behind AnkiDroidHelper are process-wide, so each test
+ * starts and ends with them reset.
+ *
+ * Run with: ./gradlew :app:testDebugUnitTest -Pcompanion.benchmark --tests '*AnkiDroidHelperBenchmark*'
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class AnkiDroidHelperBenchmark {
+    private lateinit var provider: FakeFlashCardsProvider
+    private lateinit var helper: AnkiDroidHelper
+    private var deckId = 0L
+
+    @Before
+    fun setUp() {
+        resetSingletons()
+        val app = ApplicationProvider.getApplicationContext<Application>()
+        shadowOf(app).grantPermissions(AddContentApi.READ_WRITE_PERMISSION)
+        provider = Robolectric.buildContentProvider(FakeFlashCardsProvider::class.java)
+            .create(FlashCardsContract.AUTHORITY)
+            .get()
+        provider.collection = COLLECTION
+        deckId = COLLECTION.deckIds[0]
+        helper = AnkiDroidHelper(app)
+    }
+
+    @After
+    fun tearDown() {
+        resetSingletons()
+    }
+
+    private fun resetSingletons() {
+        ModelCache.resetInstance()
+        NoteModelIndex.resetInstance()
+        DeckNoteIndex.resetInstance()
+        CardContentCache.resetInstance()
+        ProviderMetrics.reset()
+    }
+
+    @Test
+    fun queryCurrentScheduledCard() {
+        val result = measure("queryCurrentScheduledCard") {
+            helper.queryCurrentScheduledCard(deckId, UserPreferences.CardSourceMode.REVIEW)
+        }
+        assertNotNull(result.value)
+        assertWithinBudget(result, 2)
+    }
+
+    @Test
+    fun fetchQueueCards() {
+        val result = measure("fetchQueueCards") { helper.fetchQueueCards(deckId, true) }
+        assertFalse(result.value.isEmpty())
+        assertWithinBudget(result, 2)
+    }
+
+    @Test
+    fun fetchRandomDeckCards() {
+        val result = measure("fetchRandomDeckCards") { helper.fetchRandomDeckCards(deckId, 10, SAMPLE_LIMIT) }
+        assertFalse(result.value.isEmpty())
+        // Review queue for due notes + one bulk content query (the card table scan is served from
+        // DeckNoteIndex once warm), plus note->model lookups for sampled notes not yet in the index (the
+        // sample is random, so a warm run can still miss, at most one "nid:" query per 100).
+        assertWithinBudget(result, 2L + (SAMPLE_LIMIT + 99) / 100)
+    }
+
+    @Test
+    fun fetchRandomDeckCardsWithoutBulkCards() {
+        provider.bulkCardsSupported = false
+        val result = measure("fetchRandomDeckCards(no bulk)") { helper.fetchRandomDeckCards(deckId, 10, SAMPLE_LIMIT) }
+        assertFalse(result.value.isEmpty())
+    }
+
+    @Test
+    fun getTemplateOptionsForDeck() {
+        val result = measure("getTemplateOptionsForDeck") { helper.getTemplateOptionsForDeck(deckId) }
+        assertFalse(result.value.isEmpty())
+        assertWithinBudget(result, 1)
+    }
+
+    private class Result<T>(
+        val value: T,
+        val coldQueries: Long,
+        val warmQueries: Long,
+        val coldMs: Double,
+        val warmMedianMs: Double,
+        val warmP95Ms: Double
+    )
+
+    private fun <T> measure(name: String, block: () -> T): Result<T> {
+        provider.resetStats()
+        var start = System.nanoTime()
+        var value = block()
+        val coldMs = (System.nanoTime() - start) / 1e6
+        val coldQueries = provider.totalQueries()
+        val coldRows = provider.totalRows()
+        val coldRoutes = provider.describeStats()
+
+        val timings = DoubleArray(WARM_ITERATIONS)
+        var warmQueries = 0L
+        for (i in 0 until WARM_ITERATIONS) {
+            provider.resetStats()
+            start = System.nanoTime()
+            value = block()
+            timings[i] = (System.nanoTime() - start) / 1e6
+            warmQueries = maxOf(warmQueries, provider.totalQueries())
+        }
+        timings.sort()
+        val result = Result(value, coldQueries, warmQueries, coldMs, timings[timings.size / 2],
+            timings[((timings.size - 1) * 95) / 100])
+        println(
+            "BENCH %-30s notes=%d cold: %d queries %d rows %.1f ms [%s] | warm: max %d queries median %.2f ms p95 %.2f ms [%s]"
+                .format(name, COLLECTION.noteCount, coldQueries, coldRows, coldMs, coldRoutes,
+                    warmQueries, result.warmMedianMs, result.warmP95Ms, provider.describeStats())
+        )
+        return result
+    }
+
+    private fun assertWithinBudget(result: Result<*>, warmBudget: Long) {
+        assertTrue("warm run used ${result.warmQueries} provider queries, budget is $warmBudget",
+            result.warmQueries <= warmBudget)
+    }
+
+    companion object {
+        private const val WARM_ITERATIONS = 20
+        private const val SAMPLE_LIMIT = 500
+        private val NOTE_COUNT = System.getProperty("companion.benchmark.notes")?.toIntOrNull() ?: 5_000
+
+        private val COLLECTION by lazy {
+            FakeFlashCardsProvider.SyntheticCollection(deckCount = 4, noteCount = NOTE_COUNT)
+        }
+    }
+}
@@ -0,0 +1,359 @@
+package com.ankidroid.companion
+
+import android.content.ContentProvider
+import android.content.ContentValues
+import android.content.UriMatcher
+import android.database.Cursor
+import android.database.MatrixCursor
+import android.net.Uri
+import com.ichi2.anki.FlashCardsContract
+import java.util.Random
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
+
+/**
+ * In-process stand-in for AnkiDroid's FlashCardsContract provider, serving the URIs AnkiDroidHelper reads
+ * (schedule, notes, notes/#/cards/#, cards, models/#, decks) from a [SyntheticCollection]. Every query is
+ * counted per route so tests can assert round-trip budgets.
+ */
+class FakeFlashCardsProvider : ContentProvider() {
+
+    /**
+     * Deterministic collection: notes spread round-robin over decks, models with 1..n templates, and a
+     * review queue made of the first [dueCardsPerDeck] cards of every deck.
+     */
+    class SyntheticCollection(
+        val deckCount: Int,
+        val noteCount: Int,
+        val modelCount: Int = 3,
+        val dueCardsPerDeck: Int = 200,
+        seed: Long = 42L
+    ) {
+        val deckIds = LongArray(deckCount) { DECK_ID_BASE + it }
+        val modelIds = LongArray(modelCount) { MODEL_ID_BASE + it }
+        val noteIds = LongArray(noteCount) { NOTE_ID_BASE + it }
+        val noteModel = IntArray(noteCount)
+        val noteDeck = IntArray(noteCount) { it % deckCount }
+
+        init {
+            val random = Random(seed)
+            for (i in 0 until noteCount) {
+                noteModel[i] = random.nextInt(modelCount)
+            }
+        }
+
+        fun numCards(modelIndex: Int): Int = modelIndex + 1
+
+        fun noteIndex(noteId: Long): Int {
+            val index = noteId - NOTE_ID_BASE
+            return if (index in 0 until noteCount) index.toInt() else -1
+        }
+
+        fun modelIndex(modelId: Long): Int {
+            val index = modelId - MODEL_ID_BASE
+            return if (index in 0 until modelCount) index.toInt() else -1
+        }
+
+        fun deckIndex(deckId: Long): Int {
+            val index = deckId - DECK_ID_BASE
+            return if (index in 0 until deckCount) index.toInt() else -1
+        }
+
+        fun deckName(deckIndex: Int): String = "Deck $deckIndex"
+
+        fun question(note: Int, ord: Int): String =
+            "<div class=\"front\">Word ${noteIds[note]}</div><div class=\"tr\">card $ord</div>"
+
+        fun answer(note: Int, ord: Int): String =
+            question(note, ord) + "<hr id=answer><div class=\"definition\">Meaning of ${noteIds[note]}</div>" +
+                "<ul><li>first example</li><li>second example</li></ul>[sound:word_${noteIds[note]}.mp3]"
+
+        companion object {
+            const val DECK_ID_BASE = 1_000L
+            const val MODEL_ID_BASE = 1_500_000_000_000L
+            const val NOTE_ID_BASE = 1_600_000_000_000L
+        }
+    }
+
+    class RouteStats {
+        val queries = AtomicLong()
+        val rows = AtomicLong()
+    }
+
+    private val stats = ConcurrentHashMap<String, RouteStats>()
+
+    @Volatile
+    var collection = SyntheticCollection(deckCount = 1, noteCount = 0)
+
+    /** When false the cards URI rejects selections, like providers without bulk card access. */
+    @Volatile
+    var bulkCardsSupported = true
+
+    override fun onCreate(): Boolean = true
+
+    fun resetStats() = stats.clear()
+
+    fun queryCount(route: String): Long = stats[route]?.queries?.get() ?: 0L
+
+    fun totalQueries(): Long = stats.values.sumOf { it.queries.get() }
+
+    fun totalRows(): Long = stats.values.sumOf { it.rows.get() }
+
+    fun describeStats(): String =
+        stats.entries.sortedBy { it.key }.joinToString(" ") { "${it.key}=${it.value.queries.get()}q/${it.value.rows.get()}r" }
+
+    override fun query(
+        uri: Uri,
+        projection: Array<out String>?,
+        selection: String?,
+        selectionArgs: Array<out String>?,
+        sortOrder: String?
+    ): Cursor? {
+        val route = MATCHER.match(uri)
+        val name = ROUTE_NAMES[route] ?: "unknown"
+        val routeStats = stats.getOrPut(name) { RouteStats() }
+        routeStats.queries.incrementAndGet()
+        val cursor = when (route) {
+            SCHEDULE -> schedule(projection, selection, selectionArgs)
+            NOTES -> notes(projection, selection)
+            NOTE -> note(projection, uri.pathSegments[1].toLong())
+            NOTE_CARDS -> noteCards(projection, uri.pathSegments[1].toLong(), null)
+            NOTE_CARD -> noteCards(projection, uri.pathSegments[1].toLong(), uri.pathSegments[3].toInt())
+            CARDS -> cards(projection, selection, selectionArgs)
+            MODEL -> model(projection, uri.lastPathSegment!!.toLong())
+            DECKS -> decks(projection)
+            else -> throw IllegalArgumentException("Unsupported uri $uri")
+        }
+        routeStats.rows.addAndGet(cursor.count.toLong())
+        return cursor
+    }
+
+    private fun schedule(projection: Array<out String>?, selection: String?, args: Array<out String>?): Cursor {
+        val params = parseKeyValueSelection(selection, args)
+        val limit = params["limit"]?.toInt() ?: Int.MAX_VALUE
+        val deckIndex = (params["deckID"] ?: params["did"])?.let { collection.deckIndex(it.toLong()) }
+        val columns = projection ?: arrayOf(
+            FlashCardsContract.ReviewInfo.NOTE_ID,
+            FlashCardsContract.ReviewInfo.CARD_ORD,
+            FlashCardsContract.ReviewInfo.BUTTON_COUNT,
+            FlashCardsContract.ReviewInfo.NEXT_REVIEW_TIMES,
+            FlashCardsContract.ReviewInfo.MEDIA_FILES
+        )
+        val cursor = MatrixCursor(columns)
+        val c = collection
+        val dueSeen = IntArray(c.deckCount)
+        for (note in 0 until c.noteCount) {
+            if (cursor.count >= limit) break
+            val deck = c.noteDeck[note]
+            if (deckIndex != null && deck != deckIndex) continue
+            if (dueSeen[deck] >= c.dueCardsPerDeck) continue
+            dueSeen[deck]++
+            cursor.addRow(columns.map { column ->
+                when (column) {
+                    FlashCardsContract.ReviewInfo.NOTE_ID -> c.noteIds[note]
+                    FlashCardsContract.ReviewInfo.CARD_ORD -> 0
+                    FlashCardsContract.ReviewInfo.BUTTON_COUNT -> 4
+                    FlashCardsContract.ReviewInfo.NEXT_REVIEW_TIMES -> "[\"<1m\",\"<6m\",\"<10m\",\"4d\"]"
+                    FlashCardsContract.ReviewInfo.MEDIA_FILES -> "[]"
+                    "did" -> c.deckIds[deck]
+                    else -> null
+                }
+            })
+        }
+        return cursor
+    }
+
+    private fun notes(projection: Array<out String>?, selection: String?): Cursor {
+        val columns = projection ?: arrayOf(FlashCardsContract.Note._ID, FlashCardsContract.Note.MID)
+        val cursor = MatrixCursor(columns)
+        val c = collection
+        val query = selection?.trim().orEmpty()
+        val matches: Sequence<Int> = when {
+            query.startsWith("nid:") -> query.removePrefix("nid:").split(',').asSequence()
+                .mapNotNull { it.trim().toLongOrNull() }.map { c.noteIndex(it) }.filter { it >= 0 }
+            query.startsWith("deck:") -> {
+                // The synthetic collection has no subdecks, so a trailing -deck:"Name::*" exclusion is a no-op.
+                val name = query.removePrefix("deck:").substringBefore(" -deck:").trim('"').replace("\\\"", "\"")
+                val deck = (0 until c.deckCount).firstOrNull { c.deckName(it) == name } ?: -1
+                (0 until c.noteCount).asSequence().filter { c.noteDeck[it] == deck }
+            }
+            else -> throw IllegalArgumentException("Unsupported note search: $selection")
+        }
+        for (note in matches) {
+            cursor.addRow(columns.map { noteColumn(it, note) })
+        }
+        return cursor
+    }
+
+    private fun note(projection: Array<out String>?, noteId: Long): Cursor {
+        val columns = projection ?: arrayOf(FlashCardsContract.Note._ID, FlashCardsContract.Note.MID)
+        val cursor = MatrixCursor(columns)
+        val note = collection.noteIndex(noteId)
+        if (note >= 0) cursor.addRow(columns.map { noteColumn(it, note) })
+        return cursor
+    }
+
+    private fun noteColumn(column: String, note: Int): Any? = when (column) {
+        FlashCardsContract.Note._ID -> collection.noteIds[note]
+        FlashCardsContract.Note.MID -> collection.modelIds[collection.noteModel[note]]
+        else -> null
+    }
+
+    private fun noteCards(projection: Array<out String>?, noteId: Long, ord: Int?): Cursor {
+        val columns = projection ?: DEFAULT_CARD_COLUMNS
+        val cursor = MatrixCursor(columns)
+        val note = collection.noteIndex(noteId)
+        if (note < 0) return cursor
+        val numCards = collection.numCards(collection.noteModel[note])
+        for (o in 0 until numCards) {
+            if (ord != null && o != ord) continue
+            cursor.addRow(columns.map { cardColumn(it, note, o) })
+        }
+        return cursor
+    }
+
+    private fun cards(projection: Array<out String>?, selection: String?, args: Array<out String>?): Cursor {
+        if (!bulkCardsSupported && selection != null) {
+            throw IllegalArgumentException("Selection not supported on cards: $selection")
+        }
+        val columns = projection ?: DEFAULT_CARD_COLUMNS
+        val cursor = MatrixCursor(columns)
+        val c = collection
+        val notes: Sequence<Int> = when {
+            selection == null -> (0 until c.noteCount).asSequence()
+            selection.startsWith(FlashCardsContract.Card.NOTE_ID) && selection.contains(" IN ") ->
+                args.orEmpty().asSequence().map { c.noteIndex(it.toLong()) }.filter { it >= 0 }
+            selection == FlashCardsContract.Card.DECK_ID + "=?" -> {
+                val deck = c.deckIndex(args!![0].toLong())
+                (0 until c.noteCount).asSequence().filter { c.noteDeck[it] == deck }
+            }
+            else -> throw IllegalArgumentException("Unsupported card selection: $selection")
+        }
+        for (note in notes) {
+            for (ord in 0 until c.numCards(c.noteModel[note])) {
+                cursor.addRow(columns.map { cardColumn(it, note, ord) })
+            }
+        }
+        return cursor
+    }
+
+    private fun cardColumn(column: String, note: Int, ord: Int): Any? = when (column) {
+        FlashCardsContract.Card.NOTE_ID -> collection.noteIds[note]
+        FlashCardsContract.Card.CARD_ORD -> ord
+        FlashCardsContract.Card.DECK_ID -> collection.deckIds[collection.noteDeck[note]]
+        FlashCardsContract.Card.QUESTION -> collection.question(note, ord)
+        FlashCardsContract.Card.ANSWER -> collection.answer(note, ord)
+        FlashCardsContract.Card.QUESTION_SIMPLE -> "Word ${collection.noteIds[note]}"
+        FlashCardsContract.Card.ANSWER_PURE -> "Meaning of ${collection.noteIds[note]}"
+        else -> null
+    }
+
+    private fun model(projection: Array<out String>?, modelId: Long): Cursor {
+        val columns = projection ?: arrayOf(FlashCardsContract.Model.NAME, FlashCardsContract.Model.NUM_CARDS)
+        val cursor = MatrixCursor(columns)
+        val model = collection.modelIndex(modelId)
+        if (model >= 0) {
+            cursor.addRow(columns.map { column ->
+                when (column) {
+                    FlashCardsContract.Model.NAME -> "Model $model"
+                    FlashCardsContract.Model.NUM_CARDS -> collection.numCards(model)
+                    FlashCardsContract.Model._ID -> modelId
+                    else -> null
+                }
+            })
+        }
+        return cursor
+    }
+
+    private fun decks(projection: Array<out String>?): Cursor {
+        val columns = projection ?: arrayOf(FlashCardsContract.Deck.DECK_ID, FlashCardsContract.Deck.DECK_NAME)
+        val cursor = MatrixCursor(columns)
+        for (deck in 0 until collection.deckCount) {
+            cursor.addRow(columns.map { column ->
+                when (column) {
+                    FlashCardsContract.Deck.DECK_ID -> collection.deckIds[deck]
+                    FlashCardsContract.Deck.DECK_NAME -> collection.deckName(deck)
+                    else -> null
+                }
+            })
+        }
+        return cursor
+    }
+
+    // "limit=?,deckID=?" style selections used by the schedule URI.
+    private fun parseKeyValueSelection(selection: String?, args: Array<out String>?): Map<String, String> {
+        if (selection.isNullOrBlank()) return emptyMap()
+        val result = HashMap<String, String>()
+        var argIndex = 0
+        for (part in selection.split(',')) {
+            val key = part.substringBefore('=').trim()
+            val value = part.substringAfter('=', "").trim()
+            result[key] = if (value == "?") args!![argIndex++] else value
+        }
+        return result
+    }
+
+    override fun getType(uri: Uri): String? = null
+
+    override fun insert(uri: Uri, values: ContentValues?): Uri? = throw UnsupportedOperationException()
+
+    override fun delete(uri: Uri, selection: String?, selectionArgs: Array<out String>?): Int = 0
+
+    override fun update(uri: Uri, values: ContentValues?, selection: String?, selectionArgs: Array<out String>?): Int {
+        stats.getOrPut(ROUTE_NAMES[MATCHER.match(uri)] ?: "unknown") { RouteStats() }.queries.incrementAndGet()
+        return 1
+    }
+
+    companion object {
+        private const val SCHEDULE = 1
+        private const val NOTES = 2
+        private const val NOTE = 3
+        private const val NOTE_CARDS = 4
+        private const val NOTE_CARD = 5
+        private const val CARDS = 6
+        private const val MODEL = 7
+        private const val DECKS = 8
+
+        const val ROUTE_SCHEDULE = "schedule"
+        const val ROUTE_NOTES = "notes"
+        const val ROUTE_NOTE = "note"
+        const val ROUTE_NOTE_CARDS = "note_cards"
+        const val ROUTE_NOTE_CARD = "note_card"
+        const val ROUTE_CARDS = "cards"
+        const val ROUTE_MODEL = "model"
+        const val ROUTE_DECKS = "decks"
+
+        private val ROUTE_NAMES = mapOf(
+            SCHEDULE to ROUTE_SCHEDULE,
+            NOTES to ROUTE_NOTES,
+            NOTE to ROUTE_NOTE,
+            NOTE_CARDS to ROUTE_NOTE_CARDS,
+            NOTE_CARD to ROUTE_NOTE_CARD,
+            CARDS to ROUTE_CARDS,
+            MODEL to ROUTE_MODEL,
+            DECKS to ROUTE_DECKS
+        )
+
+        private val DEFAULT_CARD_COLUMNS = arrayOf(
+            FlashCardsContract.Card.NOTE_ID,
+            FlashCardsContract.Card.CARD_ORD,
+            FlashCardsContract.Card.DECK_ID,
+            FlashCardsContract.Card.QUESTION,
+            FlashCardsContract.Card.ANSWER,
+            FlashCardsContract.Card.QUESTION_SIMPLE,
+            FlashCardsContract.Card.ANSWER_PURE
+        )
+
+        private val MATCHER = UriMatcher(UriMatcher.NO_MATCH).apply {
+            val authority = FlashCardsContract.AUTHORITY
+            addURI(authority, "schedule", SCHEDULE)
+            addURI(authority, "notes", NOTES)
+            addURI(authority, "notes/#", NOTE)
+            addURI(authority, "notes/#/cards", NOTE_CARDS)
+            addURI(authority, "notes/#/cards/#", NOTE_CARD)
+            addURI(authority, "cards", CARDS)
+            addURI(authority, "models/#", MODEL)
+            addURI(authority, "decks", DECKS)
+        }
+    }
+}
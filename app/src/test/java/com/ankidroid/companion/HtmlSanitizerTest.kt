@@ -0,0 +1,217 @@
+package com.ankidroid.companion
+
+import androidx.core.text.HtmlCompat
+import org.junit.Assert.assertEquals
+import org.junit.Test
+import org.junit.runner.RunWith
+import org.robolectric.RobolectricTestRunner
+import org.robolectric.annotation.Config
+
+/**
+ * Checks [HtmlSanitizer] against the Regex + HtmlCompat.fromHtml pipelines it replaced. Widget text is
+ * compared exactly, line structure included, against the old sanitizeForWidget; the few deliberate changes
+ * are pinned on their own. Notification text only has to match with whitespace collapsed.
+ */
+@RunWith(RobolectricTestRunner::class)
+@Config(sdk = [33])
+class HtmlSanitizerTest {
+    @Test
+    fun everyNamedEntityDecodesLikeFromHtml() {
+        for (name in HtmlEntities.names) {
+            val html = "x&$name;x"
+            assertEquals(name, fromHtml(html), HtmlSanitizer.notificationText(html))
+        }
+    }
+
+    @Test
+    fun entityNamesAreCaseSensitive() {
+        assertEquals("\u00C9cole \u00E9t\u00E9", HtmlSanitizer.notificationText("&Eacute;cole &eacute;t&eacute;"))
+        assertEquals("\u00DCber \u00FCber", HtmlSanitizer.notificationText("&Uuml;ber &uuml;ber"))
+        // Not an entity in either case: kept as written.
+        assertEquals("&EACUTE;", HtmlSanitizer.notificationText("&EACUTE;"))
+    }
+
+    @Test
+    fun unknownEntityIsKeptLiterally() {
+        assertEquals("a &bogus; b", HtmlSanitizer.notificationText("a &bogus; b"))
+    }
+
+    @Test
+    fun numericReferences() {
+        assertEquals("\u00E9t\u00E9 \uD83D\uDE00", HtmlSanitizer.notificationText("&#233;t&#xE9; &#x1F600;"))
+    }
+
+    @Test
+    fun cardSamplesMatchLegacyNotificationText() {
+        for (html in CARD_SAMPLES) {
+            assertEquals(html, collapse(legacyNotificationText(html)), collapse(HtmlSanitizer.notificationText(html)))
+        }
+    }
+
+    @Test
+    fun widgetTextMatchesLegacyWidgetText() {
+        for (html in CARD_SAMPLES + WIDGET_SAMPLES) {
+            assertEquals(html, legacyWidgetText(html), HtmlSanitizer.widgetText(html))
+        }
+    }
+
+    @Test
+    fun widgetTextDeliberateChanges() {
+        for ((html, expected) in WIDGET_CHANGES) {
+            assertEquals(html, expected.first, legacyWidgetText(html))
+            assertEquals(html, expected.second, HtmlSanitizer.widgetText(html))
+        }
+    }
+
+    private fun fromHtml(html: String): String =
+        HtmlCompat.fromHtml(html, HtmlCompat.FROM_HTML_MODE_LEGACY).toString()
+
+    // Notifications.sanitizeText before HtmlSanitizer, without the ellipsizing.
+    private fun legacyNotificationText(source: String): String {
+        val withoutSound = source.replace(Regex("\\[sound:[^\\]]+\\]"), "")
+        val withoutImages = withoutSound.replace(Regex("(?is)<img[^>]*>"), " ")
+        val withoutUrls = withoutImages.replace(Regex("https?://\\S+"), "")
+        val withoutLinks = withoutUrls.replace(Regex("(?is)<a[^>]*>.*?</a>"), " ")
+        val withoutCustomLinks = withoutLinks
+            .replace(Regex("(?is)<div[^>]*class\\s*=\\s*\\\"link\\\"[^>]*>.*?</div>"), " ")
+        return fromHtml(withoutCustomLinks)
+            .replace("\r", "\n")
+            .replace(Regex("[ \\t\\f]+"), " ")
+            .replace(Regex("\\n{2,}"), "\n")
+            .trim()
+    }
+
+    // sanitizeForWidget before HtmlSanitizer, for a non-blank source.
+    private fun legacyWidgetText(source: String): String {
+        val nl = "§§NL§§"
+        fun applyPrefixMarkers(html: String): String {
+            val prefixTokens = listOf("❯ ", "➤ ", "→ ", "▪ ", "✎ ", "• ")
+            val rules = listOf(
+                "def" to "❯ ", "definition" to "❯ ", "mean" to "❯ ", "sentence" to "➤ ", "quote" to "❯ ",
+                "tran" to "→ ", "translation" to "→ ", "tr" to "→ ", "ex-tr" to "→ ", "ex" to "▪ ",
+                "example" to "▪ ", "note" to "✎ ", "memo" to "✎ ", "zh" to "• ", "cn" to "• ", "chinese" to "• "
+            )
+            var updated = html
+            for ((keyword, prefix) in rules) {
+                val regex = Regex("(?is)<([a-z0-9]+)([^>]*)((class|id|aria-label)\\s*=\\s*\"[^\"]*?${keyword}[^\"]*\")[^>]*>")
+                updated = regex.replace(updated) { mr ->
+                    val before = updated.substring(0, mr.range.first)
+                    val already = prefixTokens.any { tok -> before.endsWith("$nl$tok") || before.endsWith("\n$tok") }
+                    if (already) mr.value else "$nl$prefix${mr.value}"
+                }
+            }
+            return updated
+        }
+        val withAudioIcon = source
+            .replace(Regex("\\[sound:[^\\]]+\\]"), "\uD83D\uDD0A ")
+            .replace(Regex("(?is)<audio[^>]*src\\s*=\\s*\\\"([^\\\"]+)\\\"[^>]*>(?:.*?)</audio>"), "\uD83D\uDD0A ")
+            .replace(Regex("(?is)<audio[^>]*>"), "\uD83D\uDD0A ")
+        val clozeHandled = withAudioIcon.replace(Regex("\\{\\{c(\\d+)::(.*?)(::(.*?))?\\}\\}", RegexOption.IGNORE_CASE)) {
+            "[C${it.groupValues[1]}] ${it.groupValues[2]}"
+        }
+        val withQuotes = clozeHandled
+            .replace(Regex("(?is)<ol[^>]*>|<ul[^>]*>"), "\n")
+            .replace(Regex("(?is)</ol>|</ul>"), "\n")
+            .replace(Regex("(?is)<li[^>]*>"), "\n• ")
+            .replace(Regex("(?is)</li>"), "")
+            .replace(Regex("(?is)<blockquote[^>]*>"), "\n❯ ")
+            .replace(Regex("(?is)</blockquote>"), "\n\n")
+        val blockCollapsed = applyPrefixMarkers(withQuotes)
+            .replace(Regex("(?is)<p[^>]*>"), nl)
+            .replace(Regex("(?is)</p>"), nl)
+            .replace(Regex("(?is)<div[^>]*>"), nl)
+            .replace(Regex("(?is)</div>"), nl)
+            .replace(Regex("(?is)<br\\s*/?>"), nl)
+            .replace(Regex("(?is)<hr[^>]*>"), nl)
+            .replace(Regex("(§§NL§§\\s*){2,}"), nl)
+        val cleanedHtml = blockCollapsed
+            .replace(Regex("(?is)<img[^>]*>"), " ")
+            .replace(Regex("(?is)<a[^>]*>\\s*(.*?)\\s*</a>"), " ")
+            .replace(Regex("https?://\\S+"), " ")
+            .replace(Regex("\\r"), "\n")
+            .replace(Regex("\\n{3,}"), "\n\n")
+            .replace(Regex("(<br\\s*/?>\\s*){2,}"), "<br/>")
+            .trim()
+        val normalized = fromHtml(cleanedHtml).replace(nl, "\n")
+            .replace("\r", "\n")
+            .replace(Regex("[ \\t\\f]+"), " ")
+            .replace(Regex("\\n{3,}"), "\n\n")
+            .replace(Regex(" +\\n"), "\n")
+            .replace(Regex("\\n +"), "\n")
+            .trim()
+        if (normalized.isBlank()) return ""
+        val builder = StringBuilder()
+        var lastBlank = false
+        normalized.lines().forEach { line ->
+            val trimmed = line.trim()
+            if (trimmed.isEmpty()) {
+                if (!lastBlank && builder.isNotEmpty()) builder.append("\n")
+                lastBlank = true
+            } else {
+                if (builder.isNotEmpty()) builder.append("\n")
+                builder.append(trimmed)
+                lastBlank = false
+            }
+        }
+        return builder.toString().trim()
+            .replace(Regex("(?m)([^\\n])\\s*(❯|➤|→|▪|✎|•)\\s"), "$1\n$2 ")
+            .trim()
+    }
+
+    private fun collapse(text: String): String =
+        text.replace('\u00A0', ' ').replace(Regex("\\s+"), " ").trim()
+
+    companion object {
+        // Shaped like real notes: vocabulary fronts/backs, example sentences, formulas, linked dictionaries.
+        private val CARD_SAMPLES = listOf(
+            "<div>caf&eacute; &ndash; na&iuml;ve</div><div>&Eacute;cole, &uuml;ber, Stra&szlig;e &copy; 2020</div>",
+            "<b>der Hund</b><br>the dog<br><span style=\"color:#888\">&laquo;Der Hund bellt.&raquo;</span>",
+            "<p>&alpha; + &beta; &le; &gamma;</p><p>x&sup2; &times; 3 &rarr; &infin;</p>",
+            "<div>Tom &amp; Jerry &lt;3 &#233;t&#xE9;</div>",
+            "<img src=\"a.png\"><div>Voc&ecirc; est&aacute; &agrave; vontade&hellip;</div>",
+            "<i>&iquest;Qu&eacute; tal?</i> &mdash; <u>&iexcl;Muy bien!</u>",
+            "<div>Lyon&nbsp;&bull;&nbsp;Z&uuml;rich</div><a href=\"https://example.org\">Youglish</a>",
+            "<span>&OElig;uvre &oelig;uvre &Scaron;koda &euro;5 &permil;</span>"
+        )
+
+        // Widget-only markup: cloze, sound, lists, quotes, section prefixes and line structure.
+        private val WIDGET_SAMPLES = listOf(
+            "{{c1::Paris}} is the capital of {{c2::France::country}}",
+            "{{c1::a}} and {{C2::b::hint}}",
+            "{{c1::Hund}}<br>[sound:a.mp3]",
+            "<div>[sound:dog.mp3] der Hund</div><div>the dog</div>",
+            "[sound:a.mp3][sound:b.mp3] pair",
+            "<div>Hund</div><audio src=\"hund.mp3\"></audio><div>dog</div>",
+            "<ul><li>one</li><li>two</li><li>three</li></ul>",
+            "<div>Colors:</div><ol><li>red</li><li>green</li></ol><div>end</div>",
+            "<ul><li>a<ul><li>b</li></ul></li></ul>",
+            "<blockquote>To be or not to be</blockquote><div>Hamlet</div>",
+            "plain text first<div class=\"def\">meaning</div>",
+            "<div>A</div><div class=\"ex-tr\">B</div>",
+            "<span class=\"sentence\">Ich gehe nach Hause.</span><br><span class=\"tran\">I am going home.</span>",
+            "word • bullet inside → arrow text",
+            "line one<br>line two<br><br><br>line three",
+            "<p>first paragraph</p><p>second paragraph</p>",
+            "<div>before</div><hr><div>after</div>",
+            "<div>  spaced   out   text  </div>",
+            "<div>see <a href=\"https://example.org\">link</a> and https://example.org/page here</div>",
+            "<img src=\"x.png\"><div>caption</div>",
+            "<b>bold</b> <i>italic</i> x<sub>2</sub>"
+        )
+
+        // html -> (old sanitizeForWidget, HtmlSanitizer.widgetText) where the output changed on purpose.
+        private val WIDGET_CHANGES = listOf(
+            // A section prefix on the first element no longer sits alone on the first line, and a section
+            // nested right inside another keeps only the outer prefix.
+            "<div class=\"def\">meaning</div>" to ("❯\nmeaning" to "❯ meaning"),
+            "<div class=\"def\"><div class=\"example\">nested</div></div>" to ("❯\n▪ nested" to "❯ nested"),
+            "<div id=\"note\">irregular plural</div><div aria-label=\"zh\">狗</div>" to
+                ("✎\nirregular plural\n• 狗" to "✎ irregular plural\n• 狗"),
+            // List and quote ends break the line.
+            "<ul><li>one</li></ul>after list" to ("• one after list" to "• one\nafter list"),
+            "<blockquote>quoted</blockquote>after quote" to ("❯ quoted after quote" to "❯ quoted\nafter quote"),
+            // A bare URL stops at the next tag instead of swallowing it.
+            "see https://example.org<br>next line" to ("see line" to "see\nnext line")
+        )
+    }
+}
@@ -0,0 +1,48 @@
+// JMH microbenchmarks for the pure text helpers on the widget/notification render path.
+// Run with: ./gradlew :benchmark:jmh  (results in benchmark/build/results/jmh/results.json)
+plugins {
+    id("org.jetbrains.kotlin.jvm")
+    id("me.champeau.jmh")
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+tasks.withType<JavaCompile>().configureEach {
+    options.encoding = "UTF-8"
+}
+
+tasks.withType<org.jetbrains.kotlin.gradle.tasks.KotlinCompile>().configureEach {
+    kotlinOptions.jvmTarget = "1.8"
+}
+
+// Compile the Android-free helpers straight from the app sources so the benchmark always measures the
+// shipped code.
+val appSources = "../app/src/main/java"
+sourceSets {
+    main {
+        java {
+            setSrcDirs(listOf(appSources))
+            include("com/ankidroid/companion/WidgetText.java")
+        }
+        kotlin {
+            setSrcDirs(listOf(appSources))
+            include("com/ankidroid/companion/HtmlSanitizer.kt")
+            include("com/ankidroid/companion/HtmlEntities.kt")
+        }
+    }
+}
+
+jmh {
+    jmhVersion.set("1.37")
+    benchmarkMode.set(listOf("thrpt"))
+    timeUnit.set("ms")
+    warmupIterations.set(3)
+    iterations.set(5)
+    fork.set(1)
+    // gc.alloc.rate.norm is the allocation per call.
+    profilers.set(listOf("gc"))
+    resultFormat.set("JSON")
+}
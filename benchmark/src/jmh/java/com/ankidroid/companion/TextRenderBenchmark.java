@@ -0,0 +1,67 @@
+package com.ankidroid.companion;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Per-card cost of the text work done on every widget render and notification rebuild, over a corpus of
+ * card HTML (src/jmh/resources/corpus). Run with the gc profiler (the default in build.gradle.kts) to get
+ * the allocation per call next to the throughput.
+ */
+@State(Scope.Benchmark)
+public class TextRenderBenchmark {
+    @Param({"cloze", "dictionary", "image", "audio", "large"})
+    public String card;
+
+    private String html;
+    private String rendered;
+
+    @Setup
+    public void load() throws IOException {
+        html = readCorpus(card);
+        rendered = HtmlSanitizer.INSTANCE.widgetText(html);
+    }
+
+    @Benchmark
+    public String widgetText() {
+        return HtmlSanitizer.INSTANCE.widgetText(html);
+    }
+
+    @Benchmark
+    public String notificationText() {
+        return HtmlSanitizer.INSTANCE.notificationText(html);
+    }
+
+    @Benchmark
+    public int estimateLines() {
+        return WidgetText.estimateLines(rendered);
+    }
+
+    @Benchmark
+    public String truncate() {
+        return WidgetText.truncate(rendered, 160);
+    }
+
+    private static String readCorpus(String name) throws IOException {
+        try (InputStream in = TextRenderBenchmark.class.getResourceAsStream("/corpus/" + name + ".html")) {
+            if (in == null) {
+                throw new IOException("Missing corpus file " + name);
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return new String(out.toByteArray(), StandardCharsets.UTF_8);
+        }
+    }
+}
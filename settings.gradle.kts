@@ -16,4 +16,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Anki Notifications"
 include(":app")
+include(":benchmark")
  
\ No newline at end of file